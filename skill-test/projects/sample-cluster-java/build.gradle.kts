@@ -21,6 +21,7 @@ dependencies {
     implementation("com.typesafe.akka:akka-actor_$scalaBinaryVersion:$akkaVersion")
     implementation("com.typesafe.akka:akka-cluster_$scalaBinaryVersion:$akkaVersion")
     implementation("com.typesafe.akka:akka-cluster-tools_$scalaBinaryVersion:$akkaVersion")
+    implementation("com.typesafe.akka:akka-cluster-sharding_$scalaBinaryVersion:$akkaVersion")
     implementation("com.typesafe.akka:akka-stream_$scalaBinaryVersion:$akkaVersion")
     implementation("com.typesafe.akka:akka-stream-kafka_$scalaBinaryVersion:4.0.2")
     implementation("com.typesafe.akka:akka-slf4j_$scalaBinaryVersion:$akkaVersion")
@@ -39,3 +40,33 @@ java {
 tasks.test {
     useJUnitPlatform()
 }
+
+// JMH runs from the plain classpath (no fat jar) so Akka's reference.conf files are not clobbered.
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
+configurations[jmh.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+configurations[jmh.runtimeOnlyConfigurationName].extendsFrom(configurations.runtimeOnly.get())
+
+val jmhVersion = "1.37"
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:$jmhVersion")
+    // TestActorRef drives the manager on the benchmark thread
+    "jmhImplementation"("com.typesafe.akka:akka-testkit_$scalaBinaryVersion:$akkaVersion")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
+}
+
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs JMH benchmarks. -PjmhIncludes=<regex>, -PjmhArgs=\"<extra jmh args>\""
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val resultFile = layout.buildDirectory.file("reports/jmh/results.json")
+    doFirst { resultFile.get().asFile.parentFile.mkdirs() }
+    args(project.findProperty("jmhIncludes") ?: "cluster.java")
+    args("-prof", "gc", "-rf", "json", "-rff", resultFile.get().asFile.absolutePath)
+    (project.findProperty("jmhArgs") as String?)?.let { args(it.split(" ").filter(String::isNotBlank)) }
+}
@@ -0,0 +1,174 @@
+package cluster.java.cafe24;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load on the Cafe24 safe-call pipeline: calls arrive at a fixed offered rate (offeredRps,
+ * spread evenly over mallCount malls) whether or not earlier calls were answered, so a rate above
+ * perMallMaxRps x mallCount builds real backlog and sheds instead of slowing the senders down like the
+ * closed-loop Cafe24PipelineBenchmark does.
+ *
+ * Each invocation offers runSeconds of arrivals and waits for every answer. Latency is measured from
+ * each call's scheduled arrival time, so a late sender does not hide queueing. Per rate, the secondary
+ * results report the answers by status (ok, shed = 503, throttled = 429) and the latency p50/p99/max in
+ * milliseconds, averaged over the measurement iterations.
+ *
+ * Run with: gradle jmh -PjmhIncludes=Cafe24OpenLoopBenchmark -PjmhArgs="-p offeredRps=1000,2000"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@Threads(1)
+public class Cafe24OpenLoopBenchmark {
+
+    private static final Duration ASK_TIMEOUT = Duration.ofSeconds(30);
+
+    @Param({"10"})
+    public int mallCount;
+
+    @Param({"100"})
+    public int perMallMaxRps;
+
+    /** Below, at, twice and four times the pipeline's capacity with the default mallCount and perMallMaxRps. */
+    @Param({"500", "1000", "2000", "4000"})
+    public int offeredRps;
+
+    @Param({"2"})
+    public int runSeconds;
+
+    private ActorSystem system;
+    private DummyCafe24Api dummyCafe24Api;
+    private ActorRef manager;
+    private String[] mallIds;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcome {
+        public long ok;
+        public long shed;
+        public long throttled;
+        public long other;
+        public double p50Ms;
+        public double p99Ms;
+        public double maxMs;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            ok = 0;
+            shed = 0;
+            throttled = 0;
+            other = 0;
+            p50Ms = 0;
+            p99Ms = 0;
+            maxMs = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Config config = ConfigFactory.parseString(
+                "akka.actor.provider = local\n"
+                    + "akka.loglevel = WARNING\n"
+                    + "akka.coordinated-shutdown.exit-jvm = off\n")
+            .withFallback(ConfigFactory.load());
+        system = ActorSystem.create("Cafe24OpenLoopBenchmark", config);
+        // The bucket leaks at the caller's rate, so throttling rather than the bucket is the limit.
+        dummyCafe24Api = new DummyCafe24Api(40, perMallMaxRps);
+        ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics");
+        manager = system.actorOf(
+            Cafe24ApiManagerActor.props(Cafe24CallerSettings.defaults(perMallMaxRps), dummyCafe24Api, metrics),
+            "cafe24-manager");
+
+        mallIds = new String[mallCount];
+        for (int i = 0; i < mallCount; i++) {
+            mallIds[i] = "bench-mall-" + i;
+            ask(mallIds[i]).join();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        dummyCafe24Api.close();
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void offeredLoad(Outcome outcome) {
+        int arrivals = offeredRps * runSeconds;
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / offeredRps;
+        long[] latencyNanos = new long[arrivals];
+        int[] statusCodes = new int[arrivals];
+        CompletableFuture<?>[] answered = new CompletableFuture<?>[arrivals];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < arrivals; i++) {
+            long scheduledAt = start + i * intervalNanos;
+            long wait = scheduledAt - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int arrival = i;
+            answered[i] = ask(mallIds[i % mallIds.length]).whenComplete((response, failure) -> {
+                latencyNanos[arrival] = System.nanoTime() - scheduledAt;
+                statusCodes[arrival] = failure != null ? 0 : response.statusCode();
+            });
+        }
+        // allOf fails fast on a timed out call; wait for every answer instead
+        for (CompletableFuture<?> answer : answered) {
+            answer.exceptionally(failure -> null).join();
+        }
+
+        for (int statusCode : statusCodes) {
+            switch (statusCode) {
+                case 200 -> outcome.ok += 1;
+                case 503 -> outcome.shed += 1;
+                case 429 -> outcome.throttled += 1;
+                default -> outcome.other += 1;
+            }
+        }
+        Arrays.sort(latencyNanos);
+        outcome.p50Ms = percentileMs(latencyNanos, 0.50);
+        outcome.p99Ms = percentileMs(latencyNanos, 0.99);
+        outcome.maxMs = latencyNanos[arrivals - 1] / 1e6;
+    }
+
+    private CompletableFuture<Cafe24ApiManagerActor.ApiResponse> ask(String mallId) {
+        return Patterns.ask(manager, new Cafe24ApiManagerActor.ApiRequest(mallId, "hello"), ASK_TIMEOUT)
+            .thenApply(Cafe24ApiManagerActor.ApiResponse.class::cast)
+            .toCompletableFuture();
+    }
+
+    private static double percentileMs(long[] sortedNanos, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+}
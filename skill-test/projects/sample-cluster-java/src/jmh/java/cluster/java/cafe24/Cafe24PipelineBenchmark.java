@@ -0,0 +1,140 @@
+package cluster.java.cafe24;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End-to-end benchmarks for the Cafe24 safe-call pipeline:
+ * ApiRequest -> Cafe24ApiManagerActor -> MallApiCallerActor (throttle + mapAsync) -> DummyCafe24Api.
+ *
+ * Each stage gets its own benchmark so a regression can be attributed:
+ * upstreamCall* measures DummyCafe24Api alone, coldMall* measures child creation and stream
+ * materialization, endToEnd* measures actor hops plus the throttled stream for already-warm malls.
+ * The threads here form a closed loop that slows down with the pipeline, so the per-mall rate stays
+ * high enough not to bind; Cafe24OpenLoopBenchmark measures behaviour at and above the rate limit.
+ *
+ * Run with: gradle jmh -PjmhIncludes=Cafe24PipelineBenchmark -PjmhArgs="-p mallCount=100"
+ */
+@State(Scope.Benchmark)
+@Threads(4)
+public class Cafe24PipelineBenchmark {
+
+    private static final Duration ASK_TIMEOUT = Duration.ofSeconds(30);
+
+    @Param({"1", "100", "1000"})
+    public int mallCount;
+
+    @Param({"10000"})
+    public int perMallMaxRps;
+
+    @Param({"40", "1000000"})
+    public int bucketCapacity;
+
+    private ActorSystem system;
+    private DummyCafe24Api dummyCafe24Api;
+    private ActorRef manager;
+    private String[] mallIds;
+    private final AtomicLong coldMallSequence = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class MallCursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Config config = ConfigFactory.parseString(
+                "akka.actor.provider = local\n"
+                    + "akka.loglevel = WARNING\n"
+                    + "akka.coordinated-shutdown.exit-jvm = off\n")
+            .withFallback(ConfigFactory.load());
+        system = ActorSystem.create("Cafe24PipelineBenchmark", config);
+        // The bucket leaks at the requested rate so the steady state stays below 429.
+        dummyCafe24Api = new DummyCafe24Api(bucketCapacity, perMallMaxRps);
+        ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics");
+        // Every thread asks the same word; single-flight is off by default, so each call takes the full pipeline.
+        manager = system.actorOf(
+            Cafe24ApiManagerActor.props(
+                Cafe24CallerSettings.defaults(perMallMaxRps), dummyCafe24Api, metrics),
+            "cafe24-manager");
+
+        mallIds = new String[mallCount];
+        for (int i = 0; i < mallCount; i++) {
+            mallIds[i] = "bench-mall-" + i;
+            call(mallIds[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        dummyCafe24Api.close();
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Cafe24ApiManagerActor.ApiResponse endToEndThroughput(MallCursor cursor) {
+        return call(nextMall(cursor));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Cafe24ApiManagerActor.ApiResponse endToEndLatency(MallCursor cursor) {
+        return call(nextMall(cursor));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Cafe24ApiManagerActor.ApiResponse coldMallLatency() {
+        return call("bench-cold-mall-" + coldMallSequence.incrementAndGet());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Cafe24Client.ApiCallResult upstreamCallThroughput(MallCursor cursor) {
+        return dummyCafe24Api.call(nextMall(cursor), "hello").toCompletableFuture().join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Cafe24Client.ApiCallResult upstreamCallLatency(MallCursor cursor) {
+        return dummyCafe24Api.call(nextMall(cursor), "hello").toCompletableFuture().join();
+    }
+
+    private String nextMall(MallCursor cursor) {
+        int index = cursor.next;
+        cursor.next = index + 1 == mallIds.length ? 0 : index + 1;
+        return mallIds[index];
+    }
+
+    private Cafe24ApiManagerActor.ApiResponse call(String mallId) {
+        return Patterns.ask(manager, new Cafe24ApiManagerActor.ApiRequest(mallId, "hello"), ASK_TIMEOUT)
+            .thenApply(Cafe24ApiManagerActor.ApiResponse.class::cast)
+            .toCompletableFuture()
+            .join();
+    }
+}
@@ -0,0 +1,154 @@
+package cluster.java.cafe24;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.testkit.TestActorRef;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import scala.Option;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request routing cost of Cafe24ApiManagerActor for warm malls: managerRoute runs the real
+ * onApiRequest -> callerFor -> forward on the benchmark thread through a TestActorRef. The mall callers
+ * are real children, but their mailboxes discard calls, so the caller streams do no work on other
+ * threads and gc.alloc.rate.norm is the manager's own allocation per request (the forward's envelope
+ * included). registryLookup isolates the MallCallerRegistry hit, legacyRegexChildName is the
+ * replaceAll + child-name build the manager used to do per message.
+ *
+ * Run with: gradle jmh -PjmhIncludes=MallCallerRoutingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MallCallerRoutingBenchmark {
+
+    @Param({"1000", "10000"})
+    public int mallCount;
+
+    private ActorSystem system;
+    private TestActorRef<Cafe24ApiManagerActor> manager;
+    private MallCallerRegistry registry;
+    private String[] mallIds;
+    private Cafe24ApiManagerActor.ApiRequest[] requests;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Config config = ConfigFactory.parseString(
+                "akka.actor.provider = local\n"
+                    + "akka.loglevel = WARNING\n"
+                    + "akka.coordinated-shutdown.exit-jvm = off\n"
+                    + "akka.actor.deployment.\"/cafe24-manager/*\".mailbox = discarding-mailbox\n"
+                    + "discarding-mailbox.mailbox-type = \"" + DiscardingMailbox.class.getName() + "\"\n")
+            .withFallback(ConfigFactory.load());
+        system = ActorSystem.create("MallCallerRoutingBenchmark", config);
+        Cafe24Client client = new Cafe24Client() {
+            @Override
+            public CompletableFuture<ApiCallResult> call(String mallId, String word) {
+                return CompletableFuture.completedFuture(new ApiCallResult(200, word, 1, 40, 0));
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        // no idle or LRU stops, so every measured request hits a live child
+        Cafe24CallerSettings settings = Cafe24CallerSettings.builder(100)
+            .idleTimeout(Duration.ZERO)
+            .maxLiveMalls(0)
+            .build();
+        manager = TestActorRef.create(
+            system, Cafe24ApiManagerActor.props(settings, client, system.deadLetters()), "cafe24-manager");
+
+        ActorRef caller = system.deadLetters();
+        registry = new MallCallerRegistry();
+        mallIds = new String[mallCount];
+        requests = new Cafe24ApiManagerActor.ApiRequest[mallCount];
+        for (int i = 0; i < mallCount; i++) {
+            mallIds[i] = "bench.mall/" + i;
+            requests[i] = new Cafe24ApiManagerActor.ApiRequest(mallIds[i], "hello");
+            registry.put(mallIds[i], caller);
+            // creates the mall's caller up front
+            manager.receive(requests[i], ActorRef.noSender());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public void managerRoute() {
+        manager.receive(requests[nextIndex()], ActorRef.noSender());
+    }
+
+    @Benchmark
+    public ActorRef registryLookup() {
+        return registry.get(mallIds[nextIndex()]);
+    }
+
+    @Benchmark
+    public String legacyRegexChildName() {
+        return "mall-" + mallIds[nextIndex()].replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == mallIds.length ? 0 : index + 1;
+        return index;
+    }
+
+    /** Drops user messages; system messages (create, watch, stop) still reach the actor. */
+    public static final class DiscardingMailbox implements MailboxType {
+
+        public DiscardingMailbox(ActorSystem.Settings settings, Config config) {
+        }
+
+        @Override
+        public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+            return new MessageQueue() {
+                @Override
+                public void enqueue(ActorRef receiver, Envelope handle) {
+                }
+
+                @Override
+                public Envelope dequeue() {
+                    return null;
+                }
+
+                @Override
+                public int numberOfMessages() {
+                    return 0;
+                }
+
+                @Override
+                public boolean hasMessages() {
+                    return false;
+                }
+
+                @Override
+                public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+                }
+            };
+        }
+    }
+}
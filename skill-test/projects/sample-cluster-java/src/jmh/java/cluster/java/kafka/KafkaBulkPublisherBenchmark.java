@@ -0,0 +1,123 @@
+package cluster.java.kafka;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.kafka.ProducerMessage;
+import akka.stream.javadsl.Flow;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import scala.jdk.javaapi.CollectionConverters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records/sec through {@link KafkaBulkPublisher}: each invocation publishes one request of
+ * {@link #RECORDS_PER_REQUEST} records and waits for all its batch offsets, so the reported ops/s are
+ * records/s per node.
+ *
+ * Without a broker the producer flow is replaced by one that acks every record immediately, which
+ * measures the publisher's own overhead (batching, envelopes, queue, offset summaries). Pass
+ * bootstrapServers to publish to a real topic with the configured linger/batch/compression.
+ *
+ * Run with: gradle jmh -PjmhIncludes=KafkaBulkPublisherBenchmark
+ *           -PjmhArgs="-p bootstrapServers=localhost:9092 -p compression=zstd"
+ */
+@State(Scope.Benchmark)
+@Threads(4)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class KafkaBulkPublisherBenchmark {
+
+    private static final int RECORDS_PER_REQUEST = 5000;
+
+    @Param({""})
+    public String bootstrapServers;
+
+    @Param({"100", "1000"})
+    public int maxBatchRecords;
+
+    @Param({"lz4"})
+    public String compression;
+
+    private ActorSystem system;
+    private KafkaBulkPublisher publisher;
+    private List<KafkaBulkPublisher.PublishRecord> request;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Config config = ConfigFactory.parseString(
+                "akka.actor.provider = local\n"
+                    + "akka.loglevel = WARNING\n"
+                    + "akka.coordinated-shutdown.exit-jvm = off\n")
+            .withFallback(ConfigFactory.load());
+        system = ActorSystem.create("KafkaBulkPublisherBenchmark", config);
+        KafkaPublishSettings settings = KafkaPublishSettings.builder()
+            .maxBatchRecords(maxBatchRecords)
+            .compressionType(compression)
+            .build();
+        publisher = bootstrapServers.isBlank()
+            ? new KafkaBulkPublisher(system, "bench-events", settings, KafkaBulkPublisherBenchmark::ackingFlow)
+            : KafkaBulkPublisher.create(system, bootstrapServers, "bench-events", settings);
+
+        request = new ArrayList<>(RECORDS_PER_REQUEST);
+        for (int i = 0; i < RECORDS_PER_REQUEST; i++) {
+            request.add(new KafkaBulkPublisher.PublishRecord("key-" + i, "{\"seq\":" + i + ",\"payload\":\"bench\"}"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws Exception {
+        publisher.close();
+        system.terminate();
+        system.getWhenTerminated().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS_PER_REQUEST)
+    public KafkaBulkPublisher.PublishResult publishRequest() throws Exception {
+        KafkaBulkPublisher.PublishResult result =
+            publisher.publish(request.iterator()).toCompletableFuture().get(60, TimeUnit.SECONDS);
+        if (result.failedBatches() > 0) {
+            throw new IllegalStateException(result.batches().toString());
+        }
+        return result;
+    }
+
+    private static Flow<
+        ProducerMessage.Envelope<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>>,
+        ProducerMessage.Results<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>>,
+        NotUsed> ackingFlow() {
+        AtomicLong nextOffset = new AtomicLong();
+        return Flow.<ProducerMessage.Envelope<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>>>create()
+            .map(envelope -> {
+                ProducerMessage.MultiMessage<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>> multi =
+                    (ProducerMessage.MultiMessage<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>>) envelope;
+                List<ProducerMessage.MultiResultPart<String, String>> parts = new ArrayList<>();
+                for (ProducerRecord<String, String> record : CollectionConverters.asJava(multi.records())) {
+                    parts.add(new ProducerMessage.MultiResultPart<>(
+                        new RecordMetadata(new TopicPartition(record.topic(), 0), nextOffset.getAndIncrement(), 0, 0L, 0, 0),
+                        record));
+                }
+                return new ProducerMessage.MultiResult<>(CollectionConverters.asScala(parts).toList(), multi.passThrough());
+            });
+    }
+}
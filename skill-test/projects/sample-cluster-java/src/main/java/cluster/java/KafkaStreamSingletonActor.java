@@ -1,22 +1,32 @@
 package cluster.java;
 
+import akka.NotUsed;
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.ClassicActorSystemProvider;
 import akka.actor.Props;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import akka.kafka.CommitterSettings;
+import akka.kafka.ConsumerMessage;
 import akka.kafka.ConsumerSettings;
 import akka.kafka.ProducerSettings;
 import akka.kafka.Subscriptions;
+import akka.kafka.javadsl.Committer;
 import akka.kafka.javadsl.Consumer;
-import akka.kafka.javadsl.Producer;
+import akka.kafka.javadsl.SendProducer;
+import akka.stream.KillSwitches;
 import akka.stream.Materializer;
+import akka.stream.RestartSettings;
 import akka.stream.SystemMaterializer;
+import akka.stream.UniqueKillSwitch;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.RestartSource;
 import akka.stream.javadsl.Sink;
 import akka.stream.javadsl.Source;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
-import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
@@ -24,9 +34,14 @@ import org.apache.kafka.common.serialization.StringSerializer;
 import java.io.Serializable;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.UnaryOperator;
 
 public class KafkaStreamSingletonActor extends AbstractActor {
 
@@ -37,15 +52,62 @@ public class KafkaStreamSingletonActor extends AbstractActor {
             String groupIdPrefix,
             String payload,
             Duration timeout);
+
+        /** Releases long-lived clients; called when the singleton stops. */
+        default void close() {
+        }
     }
 
+    /**
+     * Keeps one producer and one committable consumer per singleton incarnation, both started by the
+     * first round-trip. Each event is sent with a fresh correlation key and completed when the consumer
+     * sees that key, so a round-trip costs a produce plus a poll instead of a producer bootstrap, a new
+     * consumer group join and a scan of the topic.
+     *
+     * The consumer group ({@code groupIdPrefix + "-fire-event"}) is stable and commits its offsets, so
+     * only the very first start reads the topic from the beginning. Records with unknown keys are
+     * committed and skipped.
+     */
     public static final class AkkaStreamsKafkaRunner implements KafkaStreamRunner {
         private final ActorSystem system;
         private final Materializer materializer;
+        private final UnaryOperator<ProducerSettings<String, String>> producerSettings;
+        private final BiFunction<
+            ConsumerSettings<String, String>,
+            String,
+            Source<ConsumerMessage.CommittableMessage<String, String>, ?>> consumerSource;
+        private final Flow<ConsumerMessage.Committable, ?, NotUsed> committer;
+        // correlation key -> round-trip waiting for its record to come back
+        private final Map<String, CompletableFuture<String>> pendingByKey = new ConcurrentHashMap<>();
+        private SendProducer<String, String> producer;
+        private UniqueKillSwitch consumerSwitch;
 
         public AkkaStreamsKafkaRunner(ActorSystem system) {
+            this(
+                system,
+                settings -> settings,
+                (settings, topic) -> Consumer.committableSource(settings, Subscriptions.topics(topic)),
+                Committer.flow(CommitterSettings.create(system)));
+        }
+
+        /**
+         * producerSettings adjusts the producer before it is created (tests plug in a fake one with
+         * {@link ProducerSettings#withProducer}), consumerSource subscribes to the topic and committer
+         * commits what was read.
+         */
+        public AkkaStreamsKafkaRunner(
+            ActorSystem system,
+            UnaryOperator<ProducerSettings<String, String>> producerSettings,
+            BiFunction<
+                ConsumerSettings<String, String>,
+                String,
+                Source<ConsumerMessage.CommittableMessage<String, String>, ?>> consumerSource,
+            Flow<ConsumerMessage.Committable, ?, NotUsed> committer) {
             this.system = system;
             this.materializer = SystemMaterializer.get(system).materializer();
+            this.producerSettings = producerSettings;
+            this.consumerSource = consumerSource;
+            this.committer = committer;
         }
 
         @Override
@@ -56,34 +118,72 @@ public class KafkaStreamSingletonActor extends AbstractActor {
             String payload,
             Duration timeout) {
 
-            ProducerSettings<String, String> producerSettings =
-                ProducerSettings.create(system, new StringSerializer(), new StringSerializer())
-                    .withBootstrapServers(bootstrapServers)
-                    .withProperty("enable.idempotence", "true")
-                    .withProperty("acks", "all");
+            SendProducer<String, String> sendProducer = ensureStarted(bootstrapServers, topic, groupIdPrefix);
+            String correlationKey = UUID.randomUUID().toString();
+            CompletableFuture<String> observed = new CompletableFuture<>();
+            pendingByKey.put(correlationKey, observed);
 
-            CompletionStage<akka.Done> produceDone = Source
-                .single(new ProducerRecord<>(topic, "cluster", payload))
-                .runWith(Producer.plainSink(producerSettings), materializer);
+            sendProducer.send(new ProducerRecord<>(topic, correlationKey, payload))
+                .whenComplete((metadata, ex) -> {
+                    if (ex != null) {
+                        observed.completeExceptionally(ex);
+                    }
+                });
+            return observed
+                .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((value, ex) -> pendingByKey.remove(correlationKey));
+        }
+
+        private synchronized SendProducer<String, String> ensureStarted(
+            String bootstrapServers,
+            String topic,
+            String groupIdPrefix) {
+
+            if (producer != null) {
+                return producer;
+            }
+
+            producer = new SendProducer<>(
+                producerSettings.apply(
+                    ProducerSettings.create(system, new StringSerializer(), new StringSerializer())
+                        .withBootstrapServers(bootstrapServers)
+                        .withProperty("enable.idempotence", "true")
+                        .withProperty("acks", "all")),
+                (ClassicActorSystemProvider) system);
 
-            String uniqueGroupId = groupIdPrefix + "-" + UUID.randomUUID();
             ConsumerSettings<String, String> consumerSettings =
                 ConsumerSettings.create(system, new StringDeserializer(), new StringDeserializer())
                     .withBootstrapServers(bootstrapServers)
-                    .withGroupId(uniqueGroupId)
-                    .withProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest")
-                    .withProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "true");
-
-            CompletionStage<String> consumeDone = Consumer
-                .plainSource(consumerSettings, Subscriptions.topics(topic))
-                .map(ConsumerRecord::value)
-                .filter(value -> payload.equals(value))
-                .take(1)
-                .runWith(Sink.head(), materializer)
-                .toCompletableFuture()
-                .orTimeout(timeout.toSeconds(), TimeUnit.SECONDS);
-
-            return produceDone.thenCompose(done -> consumeDone);
+                    .withGroupId(groupIdPrefix + "-fire-event")
+                    .withProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+
+            consumerSwitch = RestartSource
+                .onFailuresWithBackoff(
+                    RestartSettings.create(Duration.ofSeconds(1), Duration.ofSeconds(30), 0.2),
+                    () -> consumerSource.apply(consumerSettings, topic)
+                        .map(message -> {
+                            String key = message.record().key();
+                            CompletableFuture<String> pending = key != null ? pendingByKey.get(key) : null;
+                            if (pending != null) {
+                                pending.complete(message.record().value());
+                            }
+                            return (ConsumerMessage.Committable) message.committableOffset();
+                        })
+                        .via(committer))
+                .viaMat(KillSwitches.single(), Keep.right())
+                .to(Sink.ignore())
+                .run(materializer);
+            return producer;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (consumerSwitch != null) {
+                consumerSwitch.shutdown();
+            }
+            if (producer != null) {
+                producer.close();
+            }
         }
     }
 
@@ -150,6 +250,11 @@ public class KafkaStreamSingletonActor extends AbstractActor {
         this.runner = runner != null ? runner : new AkkaStreamsKafkaRunner(getContext().getSystem());
     }
 
+    @Override
+    public void postStop() {
+        runner.close();
+    }
+
     @Override
     public Receive createReceive() {
         return receiveBuilder()
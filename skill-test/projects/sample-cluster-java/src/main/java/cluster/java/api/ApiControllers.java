@@ -7,26 +7,41 @@ import cluster.java.KafkaStreamSingletonActor;
 import cluster.java.cafe24.Cafe24ApiManagerActor;
 import cluster.java.cafe24.Cafe24MetricsSingletonActor;
 import cluster.java.config.AkkaActorRuntime;
+import cluster.java.kafka.KafkaBulkPublisher;
+import cluster.java.kafka.KafkaConsumerPipeline;
+import cluster.java.kafka.KafkaConsumerPipelineActor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 @RestController
 @RequestMapping("/api")
 public class ApiControllers {
 
+    private static final int MAX_CAFE24_BATCH_ITEMS = 1000;
+
     private final AkkaActorRuntime runtime;
+    private final ObjectReader publishRecordReader;
 
-    public ApiControllers(AkkaActorRuntime runtime) {
+    public ApiControllers(AkkaActorRuntime runtime, ObjectMapper objectMapper) {
         this.runtime = runtime;
+        this.publishRecordReader = objectMapper.readerFor(KafkaBulkPublisher.PublishRecord.class);
     }
 
     @GetMapping("/heath")
@@ -61,26 +76,171 @@ public class ApiControllers {
                 : ResponseEntity.internalServerError().body(result));
     }
 
+    /**
+     * Publishes a JSON array or NDJSON stream of {"key":..,"value":..} records through the node's
+     * bulk publisher. The body is read as a stream (a root array is read element by element) and each
+     * full batch is queued while the rest is still being read; the offsets of the batches that succeeded
+     * are in the body whatever the status.
+     *
+     * A malformed record answers 400: the records before it are published, result.records says how many,
+     * and the client resends from that index after fixing it. When only some batches fail the answer is
+     * 207 and only the records of the failed batches should be resent; 503 with Retry-After means no
+     * batch was published and the whole body can be resent.
+     */
+    @PostMapping(value = "/kafka/publish", consumes = {MediaType.APPLICATION_JSON_VALUE, "application/x-ndjson"})
+    public CompletionStage<ResponseEntity<KafkaBulkPublisher.PublishResult>> kafkaPublish(InputStream body)
+        throws IOException {
+        return runtime.kafkaBulkPublisher()
+            .publish(publishRecordReader.<KafkaBulkPublisher.PublishRecord>readValues(body))
+            .thenApply(result -> {
+                if (!result.error().isEmpty()) {
+                    return ResponseEntity.badRequest().body(result);
+                }
+                if (result.failedBatches() == 0) {
+                    return ResponseEntity.ok(result);
+                }
+                return result.failedBatches() < result.batches().size()
+                    ? ResponseEntity.status(207).body(result)
+                    : ResponseEntity.status(503).header("Retry-After", "1").body(result);
+            });
+    }
+
+    @GetMapping("/kafka/consumer/stats")
+    public CompletionStage<ResponseEntity<KafkaConsumerPipeline.ConsumerStats>> kafkaConsumerStats() {
+        if (runtime.kafkaConsumerProxy() == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+        }
+        return PatternsCS.ask(
+                runtime.kafkaConsumerProxy(),
+                KafkaConsumerPipelineActor.GetConsumerStats.INSTANCE,
+                Duration.ofSeconds(5))
+            .thenApply(KafkaConsumerPipeline.ConsumerStats.class::cast)
+            .thenApply(ResponseEntity::ok);
+    }
+
+    /** A call shed by a full mall queue is answered 503 with Retry-After; upstream results keep HTTP 200. */
     @GetMapping("/cafe24/call")
-    public CompletionStage<Cafe24ApiManagerActor.ApiResponse> cafe24Call(
+    public CompletionStage<ResponseEntity<Cafe24ApiManagerActor.ApiResponse>> cafe24Call(
         @RequestParam String mallId,
-        @RequestParam String word
+        @RequestParam String word,
+        @RequestParam(defaultValue = "STANDARD") Cafe24ApiManagerActor.CallPriority priority
+    ) {
+        Cafe24ApiManagerActor.ApiRequest request = new Cafe24ApiManagerActor.ApiRequest(mallId, word, priority);
+        if (!Cafe24ApiManagerActor.isCallable(request)) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+        return PatternsCS.ask(runtime.cafe24CallRouter(), request, Duration.ofSeconds(15))
+            .thenApply(Cafe24ApiManagerActor.ApiResponse.class::cast)
+            .thenApply(response -> response.statusCode() == 503
+                ? ResponseEntity.status(503)
+                    .header("Retry-After", String.valueOf(response.retryAfterSeconds()))
+                    .body(response)
+                : ResponseEntity.ok(response));
+    }
+
+    /** 400 when the batch is empty, too large, or has an item without a mallId or word. */
+    @PostMapping("/cafe24/call-batch")
+    public CompletionStage<ResponseEntity<Cafe24ApiManagerActor.ApiBatchResponse>> cafe24CallBatch(
+        @RequestBody List<Cafe24ApiManagerActor.ApiRequest> items
     ) {
+        if (items.isEmpty()
+            || items.size() > MAX_CAFE24_BATCH_ITEMS
+            || !items.stream().allMatch(Cafe24ApiManagerActor::isCallable)) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+
+        // The manager answers partial results at its batch timeout (10s), well inside this ask timeout.
         return PatternsCS.ask(
                 runtime.cafe24ApiManager(),
-                new Cafe24ApiManagerActor.ApiRequest(mallId, word),
+                new Cafe24ApiManagerActor.ApiBatchRequest(List.copyOf(items)),
                 Duration.ofSeconds(15))
-            .thenApply(Cafe24ApiManagerActor.ApiResponse.class::cast);
+            .thenApply(Cafe24ApiManagerActor.ApiBatchResponse.class::cast)
+            .thenApply(ResponseEntity::ok);
+    }
+
+    /** Without sharding this reaches only the mall caller on the node that serves the request. */
+    @PostMapping("/cafe24/mall/parallelism")
+    public CompletionStage<Cafe24ApiManagerActor.MallParallelism> cafe24MallParallelism(
+        @RequestParam String mallId,
+        @RequestParam int parallelism
+    ) {
+        return PatternsCS.ask(
+                runtime.cafe24CallRouter(),
+                new Cafe24ApiManagerActor.SetMallParallelism(mallId, parallelism),
+                Duration.ofSeconds(5))
+            .thenApply(Cafe24ApiManagerActor.MallParallelism.class::cast);
+    }
+
+    @PostMapping("/cafe24/mall/retry-budget")
+    public CompletionStage<Cafe24ApiManagerActor.MallRetryBudget> cafe24MallRetryBudget(
+        @RequestParam String mallId,
+        @RequestParam int maxRetries
+    ) {
+        return PatternsCS.ask(
+                runtime.cafe24CallRouter(),
+                new Cafe24ApiManagerActor.SetMallRetryBudget(mallId, maxRetries),
+                Duration.ofSeconds(5))
+            .thenApply(Cafe24ApiManagerActor.MallRetryBudget.class::cast);
+    }
+
+    @GetMapping("/cafe24/mall/queue")
+    public CompletionStage<Cafe24ApiManagerActor.MallQueueStats> cafe24MallQueue(@RequestParam String mallId) {
+        return PatternsCS.ask(
+                runtime.cafe24CallRouter(),
+                new Cafe24ApiManagerActor.GetMallQueueStats(mallId),
+                Duration.ofSeconds(5))
+            .thenApply(Cafe24ApiManagerActor.MallQueueStats.class::cast);
+    }
+
+    @GetMapping("/cafe24/mall/cache")
+    public CompletionStage<Cafe24ApiManagerActor.MallCacheStats> cafe24MallCache(@RequestParam String mallId) {
+        return PatternsCS.ask(
+                runtime.cafe24CallRouter(),
+                new Cafe24ApiManagerActor.GetMallCacheStats(mallId),
+                Duration.ofSeconds(5))
+            .thenApply(Cafe24ApiManagerActor.MallCacheStats.class::cast);
+    }
+
+    @GetMapping("/cafe24/global-budget")
+    public CompletionStage<Cafe24ApiManagerActor.GlobalBudgetStats> cafe24GlobalBudget() {
+        return PatternsCS.ask(
+                runtime.cafe24ApiManager(),
+                Cafe24ApiManagerActor.GetGlobalBudgetStats.INSTANCE,
+                Duration.ofSeconds(5))
+            .thenApply(Cafe24ApiManagerActor.GlobalBudgetStats.class::cast);
+    }
+
+    @GetMapping("/cafe24/manager/stats")
+    public CompletionStage<Cafe24ApiManagerActor.ManagerStats> cafe24ManagerStats() {
+        return PatternsCS.ask(
+                runtime.cafe24ApiManager(),
+                Cafe24ApiManagerActor.GetManagerStats.INSTANCE,
+                Duration.ofSeconds(5))
+            .thenApply(Cafe24ApiManagerActor.ManagerStats.class::cast);
     }
 
     @GetMapping("/cafe24/metrics")
     public CompletionStage<Cafe24MetricsSingletonActor.MallMetrics> cafe24Metrics(
-        @RequestParam String mallId
+        @RequestParam String mallId,
+        @RequestParam(defaultValue = "LIFETIME") Cafe24MetricsSingletonActor.MetricsWindow window
     ) {
         return PatternsCS.ask(
                 runtime.cafe24MetricsProxy(),
-                new Cafe24MetricsSingletonActor.GetMallMetrics(mallId),
+                new Cafe24MetricsSingletonActor.GetMallMetrics(mallId, window),
                 Duration.ofSeconds(5))
             .thenApply(Cafe24MetricsSingletonActor.MallMetrics.class::cast);
     }
+
+    @GetMapping("/cafe24/metrics/top")
+    public CompletionStage<Cafe24MetricsSingletonActor.TopMalls> cafe24TopMalls(
+        @RequestParam(defaultValue = "THROTTLED_429") Cafe24MetricsSingletonActor.TopMetric metric,
+        @RequestParam(defaultValue = "10") int n,
+        @RequestParam(defaultValue = "LAST_1M") Cafe24MetricsSingletonActor.MetricsWindow window
+    ) {
+        return PatternsCS.ask(
+                runtime.cafe24MetricsProxy(),
+                new Cafe24MetricsSingletonActor.GetTopMalls(metric, n, window),
+                Duration.ofSeconds(5))
+            .thenApply(Cafe24MetricsSingletonActor.TopMalls.class::cast);
+    }
 }
@@ -0,0 +1,97 @@
+package cluster.java.cafe24;
+
+import akka.stream.Attributes;
+import akka.stream.FlowShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.stage.AbstractInHandler;
+import akka.stream.stage.AbstractOutHandler;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.TimerGraphStageLogic;
+
+import java.time.Duration;
+
+/**
+ * Shaping throttle whose rate, burst and pauses come from a {@link Cafe24RateController} on every
+ * element, unlike the built-in {@code throttle} whose rate is fixed at materialization.
+ * Holds at most one element while waiting for a token.
+ */
+final class Cafe24AdaptiveThrottle<T> extends GraphStage<FlowShape<T, T>> {
+
+    private static final String EMIT_TIMER = "emit";
+    private static final long MIN_WAIT_NANOS = 1_000_000;
+
+    private final Inlet<T> in = Inlet.create("Cafe24AdaptiveThrottle.in");
+    private final Outlet<T> out = Outlet.create("Cafe24AdaptiveThrottle.out");
+    private final FlowShape<T, T> shape = FlowShape.of(in, out);
+    private final Cafe24RateController controller;
+
+    Cafe24AdaptiveThrottle(Cafe24RateController controller) {
+        this.controller = controller;
+    }
+
+    @Override
+    public FlowShape<T, T> shape() {
+        return shape;
+    }
+
+    @Override
+    public TimerGraphStageLogic createLogic(Attributes inheritedAttributes) {
+        return new TimerGraphStageLogic(shape) {
+            private double tokens = controller.burst();
+            private long refilledAtNanos = System.nanoTime();
+            private T pending;
+
+            {
+                setHandler(in, new AbstractInHandler() {
+                    @Override
+                    public void onPush() {
+                        pending = grab(in);
+                        tryEmit();
+                    }
+
+                    @Override
+                    public void onUpstreamFinish() {
+                        if (pending == null) {
+                            completeStage();
+                        }
+                    }
+                });
+                setHandler(out, new AbstractOutHandler() {
+                    @Override
+                    public void onPull() {
+                        if (pending == null) {
+                            pull(in);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onTimer(Object timerKey) {
+                tryEmit();
+            }
+
+            private void tryEmit() {
+                long now = System.nanoTime();
+                double rate = controller.rate();
+                tokens = Math.min(controller.burst(), tokens + (now - refilledAtNanos) * rate / 1e9);
+                refilledAtNanos = now;
+
+                long pausedNanos = controller.pausedUntilNanos() - now;
+                if (pausedNanos <= 0 && tokens >= 1) {
+                    tokens -= 1;
+                    T element = pending;
+                    pending = null;
+                    push(out, element);
+                    if (isClosed(in)) {
+                        completeStage();
+                    }
+                    return;
+                }
+                long waitNanos = Math.max(pausedNanos, (long) ((1 - tokens) / rate * 1e9));
+                scheduleOnce(EMIT_TIMER, Duration.ofNanos(Math.max(MIN_WAIT_NANOS, waitNanos)));
+            }
+        };
+    }
+}
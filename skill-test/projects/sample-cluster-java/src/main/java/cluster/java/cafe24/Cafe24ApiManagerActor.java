@@ -2,27 +2,122 @@ package cluster.java.cafe24;
 
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
+import akka.actor.Scheduler;
+import akka.actor.Terminated;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.cluster.sharding.ShardRegion;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
-import akka.stream.OverflowStrategy;
-import akka.stream.SystemMaterializer;
-import akka.stream.ThrottleMode;
+import akka.pattern.Patterns;
+import akka.stream.Materializer;
+import akka.stream.QueueOfferResult;
 import akka.stream.javadsl.Sink;
-import akka.stream.javadsl.Source;
+import scala.concurrent.ExecutionContext;
 
 import java.io.Serializable;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.TimeUnit;
 
 public class Cafe24ApiManagerActor extends AbstractActor {
 
-    public record ApiRequest(String mallId, String word) implements Serializable {
+    public static final String MALL_SHARD_TYPE_NAME = "Cafe24MallCaller";
+
+    /** Messages addressed to one mall's caller; the sharding entity id is the mallId. */
+    public interface MallMessage extends Serializable {
+        String mallId();
+    }
+
+    /**
+     * Queueing class of a call. Each class has its own bounded lane in the mall stream; lanes are merged
+     * by weight (a ready INTERACTIVE call is picked 6 times as often as a BULK one) or, with
+     * {@link Cafe24CallerSettings#strictPriority()}, strictly in this order.
+     */
+    public enum CallPriority {
+        INTERACTIVE(6),
+        STANDARD(3),
+        BULK(1);
+
+        private final int weight;
+
+        CallPriority(int weight) {
+            this.weight = weight;
+        }
+
+        public int weight() {
+            return weight;
+        }
+    }
+
+    /** A null priority is {@link CallPriority#STANDARD}. */
+    public record ApiRequest(String mallId, String word, CallPriority priority) implements MallMessage {
+
+        public ApiRequest {
+            if (priority == null) {
+                priority = CallPriority.STANDARD;
+            }
+        }
+
+        public ApiRequest(String mallId, String word) {
+            this(mallId, word, CallPriority.STANDARD);
+        }
+    }
+
+    /** A request without a mallId or word is answered 400 and never reaches a mall caller. */
+    public static boolean isCallable(ApiRequest request) {
+        return request != null
+            && request.mallId() != null && !request.mallId().isBlank()
+            && request.word() != null && !request.word().isBlank();
+    }
+
+    static ApiResponse badRequest(ApiRequest request) {
+        return new ApiResponse(
+            request != null ? request.mallId() : null,
+            request != null ? request.word() : null,
+            "Bad Request: mallId and word are required",
+            400, 0, 0);
     }
 
+    /**
+     * retryAfterSeconds is a hint for 429 (the upstream's advised wait) and 503 (the call was shed
+     * because the mall's queue was full or closing); 0 otherwise.
+     */
     public record ApiResponse(
+        String mallId,
+        String word,
+        String result,
+        int statusCode,
+        int bucketUsed,
+        int bucketMax,
+        int retryAfterSeconds
+    ) implements Serializable {
+
+        public ApiResponse(String mallId, String word, String result, int statusCode, int bucketUsed, int bucketMax) {
+            this(mallId, word, result, statusCode, bucketUsed, bucketMax, 0);
+        }
+    }
+
+    /** Many (mallId, word) calls answered with one {@link ApiBatchResponse}, items in request order. */
+    public record ApiBatchRequest(List<ApiRequest> items) implements Serializable {
+    }
+
+    /**
+     * One batch item outcome. statusCode is the upstream status, or 504 when the item did not
+     * complete within the batch timeout; the rest of the batch is still returned.
+     */
+    public record ApiBatchItemResult(
+        int index,
         String mallId,
         String word,
         String result,
@@ -32,167 +127,633 @@ public class Cafe24ApiManagerActor extends AbstractActor {
     ) implements Serializable {
     }
 
-    private final int perMallMaxRequestsPerSecond;
-    private final DummyCafe24Api dummyCafe24Api;
+    public record ApiBatchResponse(int succeeded, int failed, List<ApiBatchItemResult> items)
+        implements Serializable {
+    }
+
+    /**
+     * Changes how many upstream calls the mall's live caller keeps in flight (clamped to
+     * 1..{@link MallApiCallerActor#MAX_PARALLELISM}); a caller created later starts from the settings again.
+     * Answered with {@link MallParallelism}.
+     */
+    public record SetMallParallelism(String mallId, int parallelism) implements MallMessage {
+    }
+
+    public record MallParallelism(String mallId, int parallelism, boolean orderedResponses) implements Serializable {
+    }
+
+    /**
+     * Changes how many times the mall's live caller retries a throttled call (0 disables retrying);
+     * like {@link SetMallParallelism} it lasts for the caller's lifetime. Answered with {@link MallRetryBudget}.
+     */
+    public record SetMallRetryBudget(String mallId, int maxRetries) implements MallMessage {
+    }
+
+    public record MallRetryBudget(String mallId, int maxRetries) implements Serializable {
+    }
+
+    /** Asks the mall's live caller for its per-lane queue counters; answered with {@link MallQueueStats}. */
+    public record GetMallQueueStats(String mallId) implements MallMessage {
+    }
+
+    /**
+     * One priority lane of a mall stream. depth is the number of calls waiting for the throttle;
+     * the queue delays cover calls that have passed it (from arrival until the throttle let them through).
+     */
+    public record LaneQueueStats(
+        CallPriority priority,
+        int depth,
+        long enqueued,
+        long dropped,
+        double avgQueueDelayMs,
+        long maxQueueDelayMs
+    ) implements Serializable {
+    }
+
+    /** coalesced counts calls answered with the result of an identical call already in flight (single-flight). */
+    public record MallQueueStats(String mallId, boolean strictPriority, long coalesced, List<LaneQueueStats> lanes)
+        implements Serializable {
+    }
+
+    /** Asks the mall's live caller for its response cache counters; answered with {@link MallCacheStats}. */
+    public record GetMallCacheStats(String mallId) implements MallMessage {
+    }
+
+    /** weight is the summed word plus result length of the cached entries. */
+    public record MallCacheStats(
+        String mallId,
+        boolean enabled,
+        int entries,
+        long weight,
+        long hits,
+        long misses,
+        long evictions,
+        long expirations
+    ) implements Serializable {
+    }
+
+    /** Asks the manager for the node's {@link Cafe24GlobalBudget} counters; answered with {@link GlobalBudgetStats}. */
+    public enum GetGlobalBudgetStats implements Serializable {
+        INSTANCE
+    }
+
+    /**
+     * Limits are 0 when disabled. waitedForConcurrency and waitedForRate count attempts that had already
+     * passed their mall's own limits and then waited here, i.e. the global budget was the binding constraint.
+     * waitedBehindWaiters counts attempts that found both limits free but queued behind earlier waiters.
+     */
+    public record GlobalBudgetStats(
+        int maxConcurrent,
+        double maxRequestsPerSecond,
+        int inFlight,
+        int waiting,
+        long acquired,
+        long waitedForConcurrency,
+        long waitedForRate,
+        long waitedBehindWaiters,
+        double avgWaitMs
+    ) implements Serializable {
+    }
+
+    /** Asks the manager for its child population counters (node-local). */
+    public enum GetManagerStats implements Serializable {
+        INSTANCE
+    }
+
+    public record ManagerStats(
+        int liveMalls,
+        long createdTotal,
+        long evictedIdleTotal,
+        long evictedLruTotal
+    ) implements Serializable {
+    }
+
+    /** Sent by a mall caller to its parent after idleTimeout without traffic. */
+    record MallIdle(String mallId) implements Serializable {
+    }
+
+    private final Cafe24CallerSettings settings;
+    private final Cafe24Client cafe24Client;
+    private final Cafe24GlobalBudget globalBudget;
+    private final Cafe24NodeMetrics nodeMetrics = new Cafe24NodeMetrics();
     private final ActorRef metricsActor;
+    private final ActorRef mallShardRegion;
+    private final MallCallerRegistry callers = new MallCallerRegistry();
+    private long createdTotal;
+    private long evictedIdleTotal;
+    private long evictedLruTotal;
+
+    public static Props props(int perMallMaxRequestsPerSecond, Cafe24Client cafe24Client, ActorRef metricsActor) {
+        return props(Cafe24CallerSettings.defaults(perMallMaxRequestsPerSecond), cafe24Client, metricsActor);
+    }
 
-    public static Props props(int perMallMaxRequestsPerSecond, DummyCafe24Api dummyCafe24Api, ActorRef metricsActor) {
+    public static Props props(Cafe24CallerSettings settings, Cafe24Client cafe24Client, ActorRef metricsActor) {
+        return props(settings, cafe24Client, metricsActor, null);
+    }
+
+    /** With a non-null mallShardRegion, calls are routed to the sharded mall callers instead of local children. */
+    public static Props props(
+        Cafe24CallerSettings settings,
+        Cafe24Client cafe24Client,
+        ActorRef metricsActor,
+        ActorRef mallShardRegion
+    ) {
+        return props(settings, cafe24Client, metricsActor, mallShardRegion, null);
+    }
+
+    /**
+     * globalBudget is shared with the mall shard region of the same node; null creates one from the settings
+     * for this manager's children.
+     */
+    public static Props props(
+        Cafe24CallerSettings settings,
+        Cafe24Client cafe24Client,
+        ActorRef metricsActor,
+        ActorRef mallShardRegion,
+        Cafe24GlobalBudget globalBudget
+    ) {
         return Props.create(Cafe24ApiManagerActor.class,
-            () -> new Cafe24ApiManagerActor(perMallMaxRequestsPerSecond, dummyCafe24Api, metricsActor));
+            () -> new Cafe24ApiManagerActor(settings, cafe24Client, metricsActor, mallShardRegion, globalBudget));
     }
 
-    public Cafe24ApiManagerActor(int perMallMaxRequestsPerSecond, DummyCafe24Api dummyCafe24Api, ActorRef metricsActor) {
-        this.perMallMaxRequestsPerSecond = perMallMaxRequestsPerSecond;
-        this.dummyCafe24Api = dummyCafe24Api;
+    public Cafe24ApiManagerActor(
+        Cafe24CallerSettings settings,
+        Cafe24Client cafe24Client,
+        ActorRef metricsActor,
+        ActorRef mallShardRegion,
+        Cafe24GlobalBudget globalBudget
+    ) {
+        this.settings = settings;
+        this.cafe24Client = cafe24Client;
+        this.globalBudget = globalBudget != null
+            ? globalBudget
+            : Cafe24GlobalBudget.forSettings(getContext().getSystem(), settings);
         this.metricsActor = metricsActor;
+        this.mallShardRegion = mallShardRegion;
+    }
+
+    @Override
+    public void preStart() {
+        getContext().actorOf(
+            Cafe24MetricsReporterActor.props(nodeMetrics, metricsActor, settings.metricsFlushInterval()),
+            "metrics-reporter");
+    }
+
+    /**
+     * Starts the sharded variant of the per-mall caller: one MallApiCallerActor entity per mallId,
+     * spread across the cluster and passivated by sharding when idle
+     * (akka.cluster.sharding.passivation.default-idle-strategy.idle-entity.timeout). A passivated or
+     * handed-off entity drains its queued calls before stopping.
+     * The returned region accepts {@link ApiRequest} and replies to the sender with {@link ApiResponse}.
+     */
+    public static ActorRef startMallShardRegion(
+        ActorSystem system,
+        Cafe24CallerSettings settings,
+        Cafe24Client cafe24Client,
+        ActorRef metricsActor
+    ) {
+        return startMallShardRegion(
+            system, settings, cafe24Client, metricsActor, Cafe24GlobalBudget.forSettings(system, settings));
+    }
+
+    public static ActorRef startMallShardRegion(
+        ActorSystem system,
+        Cafe24CallerSettings settings,
+        Cafe24Client cafe24Client,
+        ActorRef metricsActor,
+        Cafe24GlobalBudget globalBudget
+    ) {
+        int numberOfShards = system.settings().config().getInt("akka.cluster.sharding.number-of-shards");
+        Cafe24NodeMetrics nodeMetrics = new Cafe24NodeMetrics();
+        system.actorOf(
+            Cafe24MetricsReporterActor.props(nodeMetrics, metricsActor, settings.metricsFlushInterval()),
+            "cafe24MallShardMetricsReporter");
+        ClusterSharding sharding = ClusterSharding.get(system);
+        ClusterShardingSettings shardingSettings = ClusterShardingSettings.create(system);
+        // Rebalance and passivation stop an entity with StopWhenDrained rather than a PoisonPill,
+        // so its queued and in-flight calls are answered first, as for a retired local caller.
+        return sharding.start(
+            MALL_SHARD_TYPE_NAME,
+            MallApiCallerActor.shardedProps(settings, cafe24Client, globalBudget, nodeMetrics),
+            shardingSettings,
+            new MallMessageExtractor(numberOfShards),
+            sharding.defaultShardAllocationStrategy(shardingSettings),
+            MallApiCallerActor.StopWhenDrained.INSTANCE);
+    }
+
+    static final class MallMessageExtractor extends ShardRegion.HashCodeMessageExtractor {
+
+        MallMessageExtractor(int maxNumberOfShards) {
+            super(maxNumberOfShards);
+        }
+
+        @Override
+        public String entityId(Object message) {
+            if (message instanceof MallMessage mallMessage) {
+                return mallMessage.mallId();
+            }
+            return null;
+        }
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
             .match(ApiRequest.class, this::onApiRequest)
+            .match(ApiBatchRequest.class, this::onApiBatchRequest)
+            .match(SetMallParallelism.class, msg -> callerFor(msg.mallId()).forward(msg, getContext()))
+            .match(SetMallRetryBudget.class, msg -> callerFor(msg.mallId()).forward(msg, getContext()))
+            .match(GetMallQueueStats.class, msg -> callerFor(msg.mallId()).forward(msg, getContext()))
+            .match(GetMallCacheStats.class, msg -> callerFor(msg.mallId()).forward(msg, getContext()))
+            .match(MallIdle.class, this::onMallIdle)
+            .match(Terminated.class, this::onTerminated)
+            .match(GetGlobalBudgetStats.class, ignored -> getSender().tell(globalBudget.stats(), getSelf()))
+            .match(GetManagerStats.class, ignored -> getSender().tell(
+                new ManagerStats(callers.size(), createdTotal, evictedIdleTotal, evictedLruTotal),
+                getSelf()))
             .build();
     }
 
     private void onApiRequest(ApiRequest msg) {
-        ActorRef replyTo = getSender();
-        String childName = "mall-" + msg.mallId().replaceAll("[^A-Za-z0-9_-]", "_");
-        var existing = getContext().child(childName);
-        ActorRef child;
-        if (existing.isDefined()) {
-            child = existing.get();
-        } else {
-            child = getContext().actorOf(
-                MallApiCallerActor.props(
-                    msg.mallId(),
-                    perMallMaxRequestsPerSecond,
-                    dummyCafe24Api,
-                    metricsActor),
-                childName);
+        if (!isCallable(msg)) {
+            getSender().tell(badRequest(msg), getSelf());
+            return;
         }
+        // The caller replies straight to the original sender.
+        callerFor(msg.mallId()).forward(msg, getContext());
+    }
 
-        child.tell(new MallApiCallerActor.CallMallApi(msg.word(), replyTo), getSelf());
+    private void onApiBatchRequest(ApiBatchRequest msg) {
+        ActorRef collector = getContext().actorOf(
+            Cafe24BatchCallActor.props(msg.items(), getSender(), settings.batchTimeout()));
+        // Items go straight to the callers with the collector as sender: one manager message per batch.
+        // The collector has already answered the items that are not callable.
+        for (ApiRequest item : msg.items()) {
+            if (isCallable(item)) {
+                callerFor(item.mallId()).tell(item, collector);
+            }
+        }
+    }
+
+    private ActorRef callerFor(String mallId) {
+        if (mallShardRegion != null) {
+            return mallShardRegion;
+        }
+
+        ActorRef child = callers.get(mallId);
+        return child != null ? child : createChild(mallId);
+    }
+
+    private ActorRef createChild(String mallId) {
+        createdTotal += 1;
+        ActorRef child = getContext().actorOf(
+            MallApiCallerActor.props(mallId, settings, cafe24Client, globalBudget, nodeMetrics),
+            MallCallerRegistry.childName(mallId, createdTotal));
+        getContext().watch(child);
+        callers.put(mallId, child);
+
+        ActorRef evicted;
+        while ((evicted = callers.retireEldestOver(settings.maxLiveMalls())) != null) {
+            evicted.tell(MallApiCallerActor.StopWhenDrained.INSTANCE, getSelf());
+            evictedLruTotal += 1;
+        }
+        return child;
+    }
+
+    private void onMallIdle(MallIdle msg) {
+        // Only retire the incarnation that reported idle; a newer one may already serve the mall.
+        if (callers.retire(msg.mallId(), getSender())) {
+            getSender().tell(MallApiCallerActor.StopWhenDrained.INSTANCE, getSelf());
+            evictedIdleTotal += 1;
+        }
+    }
+
+    private void onTerminated(Terminated msg) {
+        callers.terminated(msg.actor());
     }
 
     static class MallApiCallerActor extends AbstractActor {
 
         private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
-        record CallMallApi(String word, ActorRef replyTo) implements Serializable {
+        record CallMallApi(String word, CallPriority priority, ActorRef replyTo) implements Serializable {
         }
 
+        /** Stop once every queued call has been answered; no new calls arrive after this. */
+        enum StopWhenDrained implements Serializable {
+            INSTANCE
+        }
+
+        private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+        /** Upper bound for runtime parallelism changes; also the mapAsync stage width. */
+        static final int MAX_PARALLELISM = 64;
+
         private record StreamEnvelope(CallMallApi request, long enqueuedAtNanos) implements Serializable {
         }
 
-        private record StreamResult(CallMallApi request, ApiResponse response, long queueDelayMs) implements Serializable {
+        private record StreamResult(
+            CallMallApi request,
+            ApiResponse response,
+            long queueDelayMs,
+            long upstreamLatencyMs,
+            int retries
+        ) implements Serializable {
+        }
+
+        private record AttemptResult(Cafe24Client.ApiCallResult result, long latencyMs) {
+        }
+
+        /** Final upstream answer plus how long its (last) attempt took and how many retries preceded it. */
+        private record CallOutcome(ApiResponse response, long upstreamLatencyMs, int retries) {
         }
 
         private final String mallId;
-        private final int maxRequestsPerSecond;
-        private final DummyCafe24Api dummyCafe24Api;
-        private final ActorRef metricsActor;
-        private ActorRef streamEntry;
+        private final Duration idleTimeout;
+        private final boolean orderedResponses;
+        private final int laneCapacity;
+        private final boolean strictPriority;
+        private final Cafe24Client cafe24Client;
+        private final Cafe24GlobalBudget globalBudget;
+        private final Cafe24NodeMetrics nodeMetrics;
+        private final Cafe24RateController rateController;
+        private final Cafe24CallPermits callPermits;
+        private final Scheduler scheduler;
+        private final ExecutionContext retryExecutor;
+        // null when response caching is off
+        private final Cafe24ResponseCache responseCache;
+        // word -> calls waiting on the identical call in flight; null when single-flight is off
+        private final Map<String, List<CallMallApi>> followersByWord;
+        private long coalesced;
+        private volatile Cafe24RetryPolicy retryPolicy;
+        private Cafe24PriorityLanes<StreamEnvelope> lanes;
+        private int inFlight;
+        private boolean draining;
 
         static Props props(
             String mallId,
-            int maxRequestsPerSecond,
-            DummyCafe24Api dummyCafe24Api,
-            ActorRef metricsActor
+            Cafe24CallerSettings settings,
+            Cafe24Client cafe24Client,
+            Cafe24GlobalBudget globalBudget,
+            Cafe24NodeMetrics nodeMetrics
         ) {
             return Props.create(
                 MallApiCallerActor.class,
-                () -> new MallApiCallerActor(mallId, maxRequestsPerSecond, dummyCafe24Api, metricsActor));
+                () -> new MallApiCallerActor(mallId, settings, cafe24Client, globalBudget, nodeMetrics));
+        }
+
+        /** Props for a sharded entity; the mallId is the entity id taken from the actor name. */
+        static Props shardedProps(
+            Cafe24CallerSettings settings,
+            Cafe24Client cafe24Client,
+            Cafe24GlobalBudget globalBudget,
+            Cafe24NodeMetrics nodeMetrics
+        ) {
+            // Sharding passivates idle entities itself.
+            return props(null, settings.toBuilder().idleTimeout(Duration.ZERO).build(), cafe24Client, globalBudget, nodeMetrics);
         }
 
         MallApiCallerActor(
             String mallId,
-            int maxRequestsPerSecond,
-            DummyCafe24Api dummyCafe24Api,
-            ActorRef metricsActor
+            Cafe24CallerSettings settings,
+            Cafe24Client cafe24Client,
+            Cafe24GlobalBudget globalBudget,
+            Cafe24NodeMetrics nodeMetrics
         ) {
-            this.mallId = mallId;
-            this.maxRequestsPerSecond = maxRequestsPerSecond;
-            this.dummyCafe24Api = dummyCafe24Api;
-            this.metricsActor = metricsActor;
+            this.mallId = mallId != null
+                ? mallId
+                : URLDecoder.decode(getSelf().path().name(), StandardCharsets.UTF_8);
+            this.idleTimeout = settings.idleTimeout();
+            this.orderedResponses = settings.orderedResponses();
+            this.laneCapacity = settings.laneCapacity();
+            this.strictPriority = settings.strictPriority();
+            this.cafe24Client = cafe24Client;
+            this.globalBudget = globalBudget;
+            this.nodeMetrics = nodeMetrics;
+            this.rateController = new Cafe24RateController(settings.perMallMaxRequestsPerSecond());
+            this.callPermits = new Cafe24CallPermits(clampParallelism(settings.perMallParallelism()));
+            this.retryPolicy = settings.retryPolicy();
+            this.responseCache = settings.responseCacheTtl() != null && !settings.responseCacheTtl().isZero()
+                ? new Cafe24ResponseCache(settings.responseCacheTtl(), settings.responseCacheMaxWeight())
+                : null;
+            // Concurrent misses always share one load when caching.
+            this.followersByWord = settings.singleFlight() || responseCache != null ? new HashMap<>() : null;
+            // Captured here: retries are scheduled from upstream completion threads, outside the actor.
+            this.scheduler = getContext().getSystem().scheduler();
+            this.retryExecutor = getContext().getDispatcher();
         }
 
         @Override
         public void preStart() {
-            var materializer = SystemMaterializer.get(getContext().getSystem()).materializer();
+            // Bound to this actor: the stream is torn down when the caller stops or is passivated.
+            var materializer = Materializer.createMaterializer(getContext());
 
-            streamEntry = Source.<StreamEnvelope>actorRef(256, OverflowStrategy.dropNew())
-                .throttle(maxRequestsPerSecond, Duration.ofSeconds(1), maxRequestsPerSecond, ThrottleMode.shaping())
-                .mapAsync(1, this::callApiWithAdaptiveBackpressure)
+            // Calls wait in their priority lane until the throttle pulls; the merge picks which lane goes next.
+            lanes = new Cafe24PriorityLanes<>(laneCapacity, strictPriority);
+            // The stage is MAX_PARALLELISM wide; callPermits bounds the upstream attempts actually in flight,
+            // so parallelism can change without rematerializing, and retry backoff holds no permit.
+            var throttled = lanes.source()
+                .via(new Cafe24AdaptiveThrottle<>(rateController))
+                .map(envelope -> {
+                    lanes.started(envelope.request().priority(),
+                        (System.nanoTime() - envelope.enqueuedAtNanos()) / 1_000_000);
+                    return envelope;
+                });
+            var called = orderedResponses
+                ? throttled.mapAsync(MAX_PARALLELISM, this::callApi)
+                : throttled.mapAsyncUnordered(MAX_PARALLELISM, this::callApi);
+            called
                 .to(Sink.foreach(result -> getSelf().tell(result, getSelf())))
                 .run(materializer);
+
+            if (idleTimeout != null && !idleTimeout.isZero()) {
+                getContext().setReceiveTimeout(idleTimeout);
+            }
         }
 
         @Override
         public Receive createReceive() {
             return receiveBuilder()
-                .match(CallMallApi.class, this::onCallMallApi)
+                .match(ApiRequest.class,
+                    msg -> onCallMallApi(new CallMallApi(msg.word(), msg.priority(), getSender())))
                 .match(StreamResult.class, this::onStreamResult)
+                .match(ReceiveTimeout.class, ignored -> onIdle())
+                .match(StopWhenDrained.class, ignored -> onStopWhenDrained())
+                .match(SetMallParallelism.class, this::onSetMallParallelism)
+                .match(SetMallRetryBudget.class, this::onSetMallRetryBudget)
+                .match(GetMallQueueStats.class, ignored -> getSender().tell(
+                    new MallQueueStats(mallId, strictPriority, coalesced, lanes.snapshot()), getSelf()))
+                .match(GetMallCacheStats.class, ignored -> getSender().tell(
+                    responseCache != null
+                        ? responseCache.stats(mallId)
+                        : new MallCacheStats(mallId, false, 0, 0, 0, 0, 0, 0),
+                    getSelf()))
                 .build();
         }
 
+        private void onSetMallRetryBudget(SetMallRetryBudget msg) {
+            retryPolicy = retryPolicy.withMaxRetries(Math.max(0, msg.maxRetries()));
+            getSender().tell(new MallRetryBudget(mallId, retryPolicy.maxRetries()), getSelf());
+        }
+
+        private void onSetMallParallelism(SetMallParallelism msg) {
+            callPermits.setLimit(clampParallelism(msg.parallelism()));
+            getSender().tell(new MallParallelism(mallId, callPermits.limit(), orderedResponses), getSelf());
+        }
+
+        private static int clampParallelism(int parallelism) {
+            return Math.max(1, Math.min(MAX_PARALLELISM, parallelism));
+        }
+
+        /**
+         * Cache hits and calls following an identical call in flight never reach the lanes, so they spend
+         * no throttle tokens. A follower waits for the leader's lane, whatever its own priority.
+         */
         private void onCallMallApi(CallMallApi msg) {
-            streamEntry.tell(new StreamEnvelope(msg, System.nanoTime()), getSelf());
+            if (responseCache != null) {
+                ApiResponse cached = responseCache.get(msg.word(), System.nanoTime());
+                if (cached != null) {
+                    msg.replyTo().tell(cached, getSelf());
+                    return;
+                }
+            }
+            if (followersByWord != null) {
+                List<CallMallApi> followers = followersByWord.get(msg.word());
+                if (followers != null) {
+                    followers.add(msg);
+                    coalesced += 1;
+                    return;
+                }
+            }
+
+            if (lanes.offer(msg.priority(), new StreamEnvelope(msg, System.nanoTime())) == QueueOfferResult.enqueued()) {
+                inFlight += 1;
+                if (followersByWord != null) {
+                    followersByWord.put(msg.word(), new ArrayList<>(1));
+                }
+            } else {
+                // Shed now rather than leaving the caller to its ask timeout.
+                nodeMetrics.recordShed(mallId);
+                msg.replyTo().tell(
+                    new ApiResponse(mallId, msg.word(), "Service Unavailable: mall queue full", 503, 0, 0,
+                        retryAfterSeconds()),
+                    getSelf());
+            }
+        }
+
+        /** Roughly how long the calls already queued need at the current rate. */
+        private int retryAfterSeconds() {
+            return (int) Math.max(1, Math.ceil(inFlight / rateController.rate()));
+        }
+
+        private void onIdle() {
+            if (draining) {
+                // Nothing came back within the drain window; give up on what is still queued.
+                getContext().stop(getSelf());
+            } else if (inFlight == 0) {
+                getContext().getParent().tell(new MallIdle(mallId), getSelf());
+            }
+        }
+
+        private void onStopWhenDrained() {
+            draining = true;
+            if (inFlight == 0) {
+                getContext().stop(getSelf());
+            } else {
+                getContext().setReceiveTimeout(DRAIN_TIMEOUT);
+            }
         }
 
         private void onStreamResult(StreamResult msg) {
             msg.request().replyTo().tell(msg.response(), getSelf());
+            if (followersByWord != null) {
+                List<CallMallApi> followers = followersByWord.remove(msg.request().word());
+                if (followers != null) {
+                    followers.forEach(follower -> follower.replyTo().tell(msg.response(), getSelf()));
+                }
+            }
+            if (responseCache != null) {
+                responseCache.put(msg.request().word(), msg.response(), System.nanoTime());
+            }
             log.info("Cafe24 safe call mall={} word={} status={} bucket={}",
                 mallId, msg.response().word(), msg.response().statusCode(),
                 msg.response().bucketUsed() + "/" + msg.response().bucketMax());
-            metricsActor.tell(
-                new Cafe24MetricsSingletonActor.RecordCall(mallId, msg.response().statusCode(), msg.queueDelayMs()),
-                getSelf());
+            nodeMetrics.record(
+                mallId, msg.response().statusCode(), msg.queueDelayMs(), msg.upstreamLatencyMs(), msg.retries());
+
+            inFlight -= 1;
+            if (draining && inFlight == 0) {
+                getContext().stop(getSelf());
+            }
         }
 
-        private CompletionStage<StreamResult> callApiWithAdaptiveBackpressure(StreamEnvelope envelope) {
+        private CompletionStage<StreamResult> callApi(StreamEnvelope envelope) {
             return executeWithRetry(envelope.request().word(), 0)
-                .thenCompose(response -> {
-                    double usageRatio = response.bucketMax() == 0
-                        ? 0.0
-                        : (double) response.bucketUsed() / response.bucketMax();
-
-                    long adaptiveDelayMs = usageRatio > 0.8 ? 500 : usageRatio > 0.5 ? 200 : 0;
-                    long queueDelayMs = (System.nanoTime() - envelope.enqueuedAtNanos()) / 1_000_000;
-                    StreamResult result = new StreamResult(envelope.request(), response, queueDelayMs);
+                .thenApply(outcome -> new StreamResult(
+                    envelope.request(),
+                    outcome.response(),
+                    (System.nanoTime() - envelope.enqueuedAtNanos()) / 1_000_000,
+                    outcome.upstreamLatencyMs(),
+                    outcome.retries()));
+        }
 
-                    if (adaptiveDelayMs > 0) {
-                        return delay(adaptiveDelayMs).thenApply(v -> result);
-                    }
-                    return CompletableFuture.completedFuture(result);
-                });
+        private static Cafe24Client.ApiCallResult badGateway(Throwable failure) {
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause()
+                : failure;
+            return new Cafe24Client.ApiCallResult(502, "Bad Gateway: " + cause.getClass().getSimpleName(), 0, 0, 0);
         }
 
-        private CompletionStage<ApiResponse> executeWithRetry(String word, int retryCount) {
-            return dummyCafe24Api.call(mallId, word)
-                .thenCompose(result -> {
-                    if (result.statusCode() == 429 && retryCount < 3) {
-                        return delay(result.callRemainSeconds() * 1000L)
-                            .thenCompose(v -> executeWithRetry(word, retryCount + 1));
+        private CompletionStage<CallOutcome> executeWithRetry(String word, int retryCount) {
+            // The mall's own permit first, then the node-wide budget shared fairly with the other malls.
+            return callPermits.acquire()
+                .thenCompose(granted -> globalBudget.acquire(mallId))
+                .thenCompose(granted -> {
+                    long startedAtNanos = System.nanoTime();
+                    CompletionStage<Cafe24Client.ApiCallResult> call;
+                    try {
+                        call = cafe24Client.call(mallId, word);
+                    } catch (RuntimeException e) {
+                        call = CompletableFuture.failedFuture(e);
+                    }
+                    // A failed call becomes a 502 like a transport failure, so the mall's stream keeps running.
+                    return call
+                        .handle((result, failure) -> {
+                            globalBudget.release();
+                            callPermits.release();
+                            return failure == null ? result : badGateway(failure);
+                        })
+                        .thenApply(result ->
+                            new AttemptResult(result, (System.nanoTime() - startedAtNanos) / 1_000_000));
+                })
+                .thenCompose(attempt -> {
+                    Cafe24Client.ApiCallResult result = attempt.result();
+                    rateController.onResult(
+                        result.statusCode(), result.bucketUsed(), result.bucketMax(), result.callRemainSeconds(),
+                        System.nanoTime());
+                    Cafe24RetryPolicy policy = retryPolicy;
+                    if (result.statusCode() == 429 && retryCount < policy.maxRetries()) {
+                        // Scheduled on the Akka scheduler and run on the actor's dispatcher; no permit is held meanwhile.
+                        return Patterns.after(
+                            policy.delayBeforeRetry(retryCount, result.callRemainSeconds() * 1000L),
+                            scheduler,
+                            retryExecutor,
+                            () -> executeWithRetry(word, retryCount + 1));
                     }
 
-                    return CompletableFuture.completedFuture(
+                    return CompletableFuture.completedFuture(new CallOutcome(
                         new ApiResponse(
                             mallId,
                             word,
                             result.body(),
                             result.statusCode(),
                             result.bucketUsed(),
-                            result.bucketMax()
-                        )
-                    );
+                            result.bucketMax(),
+                            result.statusCode() == 429 ? result.callRemainSeconds() : 0
+                        ),
+                        attempt.latencyMs(),
+                        retryCount));
                 });
         }
-
-        private CompletionStage<Void> delay(long millis) {
-            return CompletableFuture.supplyAsync(
-                () -> null,
-                CompletableFuture.delayedExecutor(millis, TimeUnit.MILLISECONDS)
-            );
-        }
     }
 }
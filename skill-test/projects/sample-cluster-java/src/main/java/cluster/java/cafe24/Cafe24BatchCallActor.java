@@ -0,0 +1,124 @@
+package cluster.java.cafe24;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import cluster.java.cafe24.Cafe24ApiManagerActor.ApiBatchItemResult;
+import cluster.java.cafe24.Cafe24ApiManagerActor.ApiBatchResponse;
+import cluster.java.cafe24.Cafe24ApiManagerActor.ApiRequest;
+import cluster.java.cafe24.Cafe24ApiManagerActor.ApiResponse;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-batch collector: receives the ApiResponse of every item of an ApiBatchRequest and replies once.
+ * Items still missing at the batch timeout are reported as 504 so the caller gets partial results;
+ * items without a mallId or word are answered 400 up front.
+ */
+class Cafe24BatchCallActor extends AbstractActor {
+
+    private enum BatchTimeout implements Serializable {
+        INSTANCE
+    }
+
+    private final List<ApiRequest> items;
+    private final ActorRef replyTo;
+    private final Duration timeout;
+    private final ApiResponse[] responses;
+    // Responses carry no correlation id; identical (mallId, word) items are interchangeable.
+    private final Map<String, ArrayDeque<Integer>> pendingIndexesByKey = new HashMap<>();
+    private int remaining;
+    private Cancellable timeoutTask;
+
+    static Props props(List<ApiRequest> items, ActorRef replyTo, Duration timeout) {
+        return Props.create(Cafe24BatchCallActor.class, () -> new Cafe24BatchCallActor(items, replyTo, timeout));
+    }
+
+    Cafe24BatchCallActor(List<ApiRequest> items, ActorRef replyTo, Duration timeout) {
+        this.items = items;
+        this.replyTo = replyTo;
+        this.timeout = timeout;
+        this.responses = new ApiResponse[items.size()];
+        this.remaining = items.size();
+        for (int i = 0; i < items.size(); i++) {
+            ApiRequest item = items.get(i);
+            if (!Cafe24ApiManagerActor.isCallable(item)) {
+                responses[i] = Cafe24ApiManagerActor.badRequest(item);
+                remaining -= 1;
+                continue;
+            }
+            pendingIndexesByKey.computeIfAbsent(key(item.mallId(), item.word()), k -> new ArrayDeque<>()).add(i);
+        }
+    }
+
+    @Override
+    public void preStart() {
+        if (remaining == 0) {
+            complete();
+            return;
+        }
+        timeoutTask = getContext().getSystem().scheduler().scheduleOnce(
+            timeout, getSelf(), BatchTimeout.INSTANCE, getContext().getDispatcher(), getSelf());
+    }
+
+    @Override
+    public void postStop() {
+        if (timeoutTask != null) {
+            timeoutTask.cancel();
+        }
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+            .match(ApiResponse.class, this::onApiResponse)
+            .match(BatchTimeout.class, ignored -> complete())
+            .build();
+    }
+
+    private void onApiResponse(ApiResponse response) {
+        ArrayDeque<Integer> pending = pendingIndexesByKey.get(key(response.mallId(), response.word()));
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+
+        responses[pending.poll()] = response;
+        remaining -= 1;
+        if (remaining == 0) {
+            complete();
+        }
+    }
+
+    private void complete() {
+        List<ApiBatchItemResult> results = new ArrayList<>(items.size());
+        int succeeded = 0;
+        for (int i = 0; i < items.size(); i++) {
+            ApiResponse response = responses[i];
+            if (response == null) {
+                ApiRequest item = items.get(i);
+                results.add(new ApiBatchItemResult(i, item.mallId(), item.word(), "Gateway Timeout", 504, 0, 0));
+                continue;
+            }
+            if (response.statusCode() == 200) {
+                succeeded += 1;
+            }
+            results.add(new ApiBatchItemResult(
+                i, response.mallId(), response.word(), response.result(), response.statusCode(),
+                response.bucketUsed(), response.bucketMax()));
+        }
+
+        replyTo.tell(new ApiBatchResponse(succeeded, items.size() - succeeded, results), getSelf());
+        getContext().stop(getSelf());
+    }
+
+    private static String key(String mallId, String word) {
+        return mallId + '\u0000' + word;
+    }
+}
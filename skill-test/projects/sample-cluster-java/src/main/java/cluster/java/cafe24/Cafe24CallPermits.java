@@ -0,0 +1,67 @@
+package cluster.java.cafe24;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Async counting semaphore bounding a mall's in-flight upstream attempts. Waiters are served in
+ * FIFO order and the limit can change at runtime; lowering it lets calls already in flight finish.
+ * Thread-safe: permits are released from client completion threads.
+ */
+final class Cafe24CallPermits {
+
+    private static final CompletableFuture<Void> GRANTED = CompletableFuture.completedFuture(null);
+
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private int limit;
+    private int inUse;
+
+    Cafe24CallPermits(int limit) {
+        this.limit = limit;
+    }
+
+    CompletionStage<Void> acquire() {
+        synchronized (this) {
+            if (inUse < limit) {
+                inUse += 1;
+                return GRANTED;
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+    }
+
+    void release() {
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            next = inUse <= limit ? waiters.poll() : null;
+            if (next == null) {
+                inUse -= 1;
+            }
+        }
+        if (next != null) {
+            // hand the permit straight to the next waiter; completed outside the lock
+            next.complete(null);
+        }
+    }
+
+    void setLimit(int newLimit) {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        synchronized (this) {
+            limit = newLimit;
+            while (inUse < limit && !waiters.isEmpty()) {
+                inUse += 1;
+                granted.add(waiters.poll());
+            }
+        }
+        granted.forEach(waiter -> waiter.complete(null));
+    }
+
+    synchronized int limit() {
+        return limit;
+    }
+}
@@ -0,0 +1,191 @@
+package cluster.java.cafe24;
+
+import java.io.Serializable;
+import java.time.Duration;
+
+/**
+ * Tuning for the per-mall caller population managed by {@link Cafe24ApiManagerActor}. Start from
+ * {@link #builder(int)} or adjust existing settings with {@link #toBuilder()}.
+ *
+ * @param perMallMaxRequestsPerSecond upper bound (and starting point) of each mall stream's adaptive rate
+ * @param idleTimeout                 stop a mall caller (and its stream) after this long without traffic; zero disables
+ * @param maxLiveMalls                hard cap on live mall callers, least recently used are evicted; 0 disables
+ * @param batchTimeout                items of a batch call not answered within this are reported as 504
+ * @param metricsFlushInterval        how often node-local call counters are flushed to the metrics singleton
+ * @param perMallParallelism          upstream calls a mall may have in flight at once; adjustable per mall at runtime
+ * @param orderedResponses            true answers a mall's calls in arrival order (mapAsync), false as they complete
+ * @param retryPolicy                 backoff and retry budget for 429s; the budget is adjustable per mall at runtime
+ * @param laneCapacity                calls each priority lane of a mall stream holds before dropping new ones
+ * @param strictPriority              true serves a lower lane only while all higher lanes are empty, false by weight
+ * @param globalMaxConcurrent         upstream attempts in flight across all malls of a node; 0 disables
+ * @param globalMaxRequestsPerSecond  upstream attempts started per second across all malls of a node; 0 disables
+ * @param responseCacheTtl            how long a mall caller reuses a 200 response for the same word; zero disables
+ * @param responseCacheMaxWeight      per mall bound on cached word plus result length (chars), LRU evicted
+ * @param singleFlight                calls for a word already in flight for the mall share its result (opt-in; always on with the cache)
+ */
+public record Cafe24CallerSettings(
+    int perMallMaxRequestsPerSecond,
+    Duration idleTimeout,
+    int maxLiveMalls,
+    Duration batchTimeout,
+    Duration metricsFlushInterval,
+    int perMallParallelism,
+    boolean orderedResponses,
+    Cafe24RetryPolicy retryPolicy,
+    int laneCapacity,
+    boolean strictPriority,
+    int globalMaxConcurrent,
+    int globalMaxRequestsPerSecond,
+    Duration responseCacheTtl,
+    long responseCacheMaxWeight,
+    boolean singleFlight
+) implements Serializable {
+
+    public static Cafe24CallerSettings defaults(int perMallMaxRequestsPerSecond) {
+        return new Cafe24CallerSettings(
+            perMallMaxRequestsPerSecond,
+            Duration.ofSeconds(120),
+            10_000,
+            Duration.ofSeconds(10),
+            Duration.ofSeconds(1),
+            1,
+            true,
+            Cafe24RetryPolicy.defaults(),
+            256,
+            false,
+            0,
+            0,
+            Duration.ZERO,
+            65_536,
+            false);
+    }
+
+    /** The {@link #defaults(int)} to adjust before {@link Builder#build()}. */
+    public static Builder builder(int perMallMaxRequestsPerSecond) {
+        return defaults(perMallMaxRequestsPerSecond).toBuilder();
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    public static final class Builder {
+
+        private int perMallMaxRequestsPerSecond;
+        private Duration idleTimeout;
+        private int maxLiveMalls;
+        private Duration batchTimeout;
+        private Duration metricsFlushInterval;
+        private int perMallParallelism;
+        private boolean orderedResponses;
+        private Cafe24RetryPolicy retryPolicy;
+        private int laneCapacity;
+        private boolean strictPriority;
+        private int globalMaxConcurrent;
+        private int globalMaxRequestsPerSecond;
+        private Duration responseCacheTtl;
+        private long responseCacheMaxWeight;
+        private boolean singleFlight;
+
+        private Builder(Cafe24CallerSettings settings) {
+            this.perMallMaxRequestsPerSecond = settings.perMallMaxRequestsPerSecond();
+            this.idleTimeout = settings.idleTimeout();
+            this.maxLiveMalls = settings.maxLiveMalls();
+            this.batchTimeout = settings.batchTimeout();
+            this.metricsFlushInterval = settings.metricsFlushInterval();
+            this.perMallParallelism = settings.perMallParallelism();
+            this.orderedResponses = settings.orderedResponses();
+            this.retryPolicy = settings.retryPolicy();
+            this.laneCapacity = settings.laneCapacity();
+            this.strictPriority = settings.strictPriority();
+            this.globalMaxConcurrent = settings.globalMaxConcurrent();
+            this.globalMaxRequestsPerSecond = settings.globalMaxRequestsPerSecond();
+            this.responseCacheTtl = settings.responseCacheTtl();
+            this.responseCacheMaxWeight = settings.responseCacheMaxWeight();
+            this.singleFlight = settings.singleFlight();
+        }
+
+        public Builder perMallMaxRequestsPerSecond(int perMallMaxRequestsPerSecond) {
+            this.perMallMaxRequestsPerSecond = perMallMaxRequestsPerSecond;
+            return this;
+        }
+
+        public Builder idleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public Builder maxLiveMalls(int maxLiveMalls) {
+            this.maxLiveMalls = maxLiveMalls;
+            return this;
+        }
+
+        public Builder batchTimeout(Duration batchTimeout) {
+            this.batchTimeout = batchTimeout;
+            return this;
+        }
+
+        public Builder metricsFlushInterval(Duration metricsFlushInterval) {
+            this.metricsFlushInterval = metricsFlushInterval;
+            return this;
+        }
+
+        public Builder perMallParallelism(int perMallParallelism) {
+            this.perMallParallelism = perMallParallelism;
+            return this;
+        }
+
+        public Builder orderedResponses(boolean orderedResponses) {
+            this.orderedResponses = orderedResponses;
+            return this;
+        }
+
+        public Builder retryPolicy(Cafe24RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        public Builder laneCapacity(int laneCapacity) {
+            this.laneCapacity = laneCapacity;
+            return this;
+        }
+
+        public Builder strictPriority(boolean strictPriority) {
+            this.strictPriority = strictPriority;
+            return this;
+        }
+
+        public Builder globalMaxConcurrent(int globalMaxConcurrent) {
+            this.globalMaxConcurrent = globalMaxConcurrent;
+            return this;
+        }
+
+        public Builder globalMaxRequestsPerSecond(int globalMaxRequestsPerSecond) {
+            this.globalMaxRequestsPerSecond = globalMaxRequestsPerSecond;
+            return this;
+        }
+
+        public Builder responseCacheTtl(Duration responseCacheTtl) {
+            this.responseCacheTtl = responseCacheTtl;
+            return this;
+        }
+
+        public Builder responseCacheMaxWeight(long responseCacheMaxWeight) {
+            this.responseCacheMaxWeight = responseCacheMaxWeight;
+            return this;
+        }
+
+        public Builder singleFlight(boolean singleFlight) {
+            this.singleFlight = singleFlight;
+            return this;
+        }
+
+        public Cafe24CallerSettings build() {
+            return new Cafe24CallerSettings(
+                perMallMaxRequestsPerSecond, idleTimeout, maxLiveMalls, batchTimeout, metricsFlushInterval,
+                perMallParallelism, orderedResponses, retryPolicy, laneCapacity, strictPriority,
+                globalMaxConcurrent, globalMaxRequestsPerSecond, responseCacheTtl, responseCacheMaxWeight,
+                singleFlight);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package cluster.java.cafe24;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Upstream Cafe24 API as seen by {@code MallApiCallerActor}. Implementations must be non-blocking and
+ * thread-safe, and should report transport failures as a result (5xx status) rather than failing
+ * the stage, so one broken call never tears down a mall's stream.
+ */
+public interface Cafe24Client extends AutoCloseable {
+
+    /** bucketUsed/bucketMax mirror the X-Api-Call-Limit header; callRemainSeconds is the advised wait. */
+    record ApiCallResult(
+        int statusCode,
+        String body,
+        int bucketUsed,
+        int bucketMax,
+        int callRemainSeconds
+    ) {
+    }
+
+    CompletionStage<ApiCallResult> call(String mallId, String word);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,182 @@
+package cluster.java.cafe24;
+
+import akka.actor.ActorSystem;
+import akka.actor.Scheduler;
+import cluster.java.cafe24.Cafe24ApiManagerActor.GlobalBudgetStats;
+import scala.concurrent.ExecutionContext;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Node-wide budget above the per-mall throttles: at most maxConcurrent upstream attempts in flight
+ * and maxRequestsPerSecond started across all malls of the node (0 disables either limit).
+ *
+ * Attempts that find the budget exhausted wait per mall and are granted round robin over the malls
+ * with waiters, one grant per mall per round, so a mall with a deep backlog cannot starve the others. A cluster-wide budget is this budget times the
+ * node count; set the limits accordingly.
+ *
+ * Attempts reach this only after their mall's own throttle and permits let them through, so a wait
+ * here means the global limit, not the per-mall one, was the binding constraint; the stats count
+ * those waits by the limit that caused them, and separately the waits of attempts that found the
+ * budget free but queued behind earlier waiters to keep the round robin fair.
+ */
+public final class Cafe24GlobalBudget {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private record Waiter(CompletableFuture<Void> granted, long enqueuedAtNanos) {
+    }
+
+    private final int maxConcurrent;
+    private final double maxRequestsPerSecond;
+    private final Scheduler scheduler;
+    private final ExecutionContext executor;
+    private final Map<String, ArrayDeque<Waiter>> waitersByMall = new HashMap<>();
+    private final ArrayDeque<String> activeMalls = new ArrayDeque<>();
+    private int inFlight;
+    private int waiting;
+    private double tokens;
+    private long refilledAtNanos = System.nanoTime();
+    private boolean refillScheduled;
+    private long acquired;
+    private long waitedForConcurrency;
+    private long waitedForRate;
+    private long waitedBehindWaiters;
+    private long sumWaitMs;
+
+    public Cafe24GlobalBudget(int maxConcurrent, double maxRequestsPerSecond, Scheduler scheduler, ExecutionContext executor) {
+        this.maxConcurrent = maxConcurrent > 0 ? maxConcurrent : Integer.MAX_VALUE;
+        this.maxRequestsPerSecond = maxRequestsPerSecond > 0 ? maxRequestsPerSecond : Double.POSITIVE_INFINITY;
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.tokens = burst();
+    }
+
+    public static Cafe24GlobalBudget forSettings(ActorSystem system, Cafe24CallerSettings settings) {
+        return new Cafe24GlobalBudget(
+            settings.globalMaxConcurrent(),
+            settings.globalMaxRequestsPerSecond(),
+            system.scheduler(),
+            system.dispatcher());
+    }
+
+    /** Completes when the attempt may start; pair every completion with one {@link #release()}. */
+    public CompletionStage<Void> acquire(String mallId) {
+        synchronized (this) {
+            refill(System.nanoTime());
+            if (waiting == 0 && inFlight < maxConcurrent && tokens >= 1) {
+                grant();
+                return CompletableFuture.completedFuture(null);
+            }
+
+            if (inFlight >= maxConcurrent) {
+                waitedForConcurrency += 1;
+            } else if (tokens < 1) {
+                waitedForRate += 1;
+            } else {
+                waitedBehindWaiters += 1;
+            }
+            CompletableFuture<Void> granted = new CompletableFuture<>();
+            ArrayDeque<Waiter> waiters = waitersByMall.computeIfAbsent(mallId, key -> new ArrayDeque<>());
+            if (waiters.isEmpty()) {
+                activeMalls.addLast(mallId);
+            }
+            waiters.addLast(new Waiter(granted, System.nanoTime()));
+            waiting += 1;
+            scheduleRefillIfRateBound();
+            return granted;
+        }
+    }
+
+    public void release() {
+        List<CompletableFuture<Void>> granted;
+        synchronized (this) {
+            inFlight -= 1;
+            granted = dispatch();
+        }
+        granted.forEach(future -> future.complete(null));
+    }
+
+    public synchronized GlobalBudgetStats stats() {
+        return new GlobalBudgetStats(
+            maxConcurrent == Integer.MAX_VALUE ? 0 : maxConcurrent,
+            Double.isInfinite(maxRequestsPerSecond) ? 0 : maxRequestsPerSecond,
+            inFlight,
+            waiting,
+            acquired,
+            waitedForConcurrency,
+            waitedForRate,
+            waitedBehindWaiters,
+            acquired == 0 ? 0.0 : (double) sumWaitMs / acquired);
+    }
+
+    private void onRefillTick() {
+        List<CompletableFuture<Void>> granted;
+        synchronized (this) {
+            refillScheduled = false;
+            granted = dispatch();
+        }
+        granted.forEach(future -> future.complete(null));
+    }
+
+    /** Grants waiters round robin over the malls while the budget allows; completed outside the lock. */
+    private List<CompletableFuture<Void>> dispatch() {
+        List<CompletableFuture<Void>> granted = new ArrayList<>();
+        long now = System.nanoTime();
+        refill(now);
+        while (!activeMalls.isEmpty() && inFlight < maxConcurrent && tokens >= 1) {
+            String mallId = activeMalls.pollFirst();
+            ArrayDeque<Waiter> waiters = waitersByMall.get(mallId);
+            Waiter waiter = waiters.pollFirst();
+            waiting -= 1;
+            sumWaitMs += (now - waiter.enqueuedAtNanos()) / 1_000_000;
+            grant();
+            granted.add(waiter.granted());
+            if (waiters.isEmpty()) {
+                waitersByMall.remove(mallId);
+            } else {
+                activeMalls.addLast(mallId);
+            }
+        }
+        scheduleRefillIfRateBound();
+        return granted;
+    }
+
+    private void grant() {
+        inFlight += 1;
+        acquired += 1;
+        if (!Double.isInfinite(maxRequestsPerSecond)) {
+            tokens -= 1;
+        }
+    }
+
+    private void refill(long nowNanos) {
+        if (!Double.isInfinite(maxRequestsPerSecond)) {
+            tokens = Math.min(burst(), tokens + (nowNanos - refilledAtNanos) * maxRequestsPerSecond / NANOS_PER_SECOND);
+        }
+        refilledAtNanos = nowNanos;
+    }
+
+    /** One second worth of tokens, at least one. */
+    private double burst() {
+        return Double.isInfinite(maxRequestsPerSecond) ? Double.POSITIVE_INFINITY : Math.max(1, maxRequestsPerSecond);
+    }
+
+    private void scheduleRefillIfRateBound() {
+        if (refillScheduled || waiting == 0 || tokens >= 1 || inFlight >= maxConcurrent) {
+            // a release dispatches the concurrency-bound case
+            return;
+        }
+        refillScheduled = true;
+        long delayNanos = (long) Math.ceil((1 - tokens) * NANOS_PER_SECOND / maxRequestsPerSecond);
+        scheduler.scheduleOnce(
+            Duration.ofNanos(Math.max(1_000_000, delayNanos)), this::onRefillTick, executor);
+    }
+}
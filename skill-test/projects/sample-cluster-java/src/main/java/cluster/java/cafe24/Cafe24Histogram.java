@@ -0,0 +1,167 @@
+package cluster.java.cafe24;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Small log-linear histogram (HDR-style) for non-negative values such as milliseconds or retry counts.
+ * Values 0..7 are exact, larger values fall into 4 sub-buckets per power of two (<= 25% error),
+ * and the exact maximum is kept alongside. 48 buckets cover 0..8191 in 192 bytes of counts.
+ *
+ * Mergeable by adding bucket counts. The sliding window is an exponential decay: counts are halved
+ * once per elapsed window, applied lazily on the next access so no sweep over all malls is needed.
+ * Not thread-safe; the concurrent node-side recorder is {@link Recorder}.
+ */
+final class Cafe24Histogram {
+
+    static final int LATENCY_BUCKETS = 48;
+    static final int RETRY_BUCKETS = 8;
+
+    private static final int EXACT_BUCKETS = 8;
+    private static final int SUB_BUCKETS = 4;
+
+    private final int[] counts;
+    private long maxCurrentWindow;
+    private long maxPreviousWindow;
+    private long windowEpoch;
+
+    Cafe24Histogram(int buckets) {
+        this.counts = new int[buckets];
+    }
+
+    static int bucketOf(long value, int buckets) {
+        if (value < EXACT_BUCKETS) {
+            return (int) Math.min(Math.max(0, value), buckets - 1);
+        }
+        int octave = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (octave - 2)) & (SUB_BUCKETS - 1);
+        return Math.min(EXACT_BUCKETS + (octave - 3) * SUB_BUCKETS + sub, buckets - 1);
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < EXACT_BUCKETS) {
+            return bucket;
+        }
+        int octave = 3 + (bucket - EXACT_BUCKETS) / SUB_BUCKETS;
+        int sub = (bucket - EXACT_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + 1 + sub) << (octave - 2)) - 1;
+    }
+
+    void record(long value, long epoch) {
+        decayTo(epoch);
+        counts[bucketOf(value, counts.length)] += 1;
+        maxCurrentWindow = Math.max(maxCurrentWindow, value);
+    }
+
+    /** Adds a delta (bucket counts of the same layout plus its max) observed in window {@code epoch}. */
+    void merge(int[] deltaCounts, long deltaMax, long epoch) {
+        decayTo(epoch);
+        for (int i = 0; i < counts.length && i < deltaCounts.length; i++) {
+            counts[i] += deltaCounts[i];
+        }
+        maxCurrentWindow = Math.max(maxCurrentWindow, deltaMax);
+    }
+
+    /** Halves the counts once per window elapsed since the last access. */
+    void decayTo(long epoch) {
+        if (epoch <= windowEpoch) {
+            return;
+        }
+        int shift = (int) Math.min(epoch - windowEpoch, 31);
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] >>>= shift;
+        }
+        maxPreviousWindow = shift == 1 ? maxCurrentWindow : 0;
+        maxCurrentWindow = 0;
+        windowEpoch = epoch;
+    }
+
+    long count() {
+        long total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /** Max over the current and previous window. */
+    long max() {
+        return Math.max(maxCurrentWindow, maxPreviousWindow);
+    }
+
+    /** Upper bound of the bucket holding the given quantile (0..1), capped at the observed max. */
+    long percentile(double quantile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long max = max();
+                return i == counts.length - 1 || max == 0 ? max : Math.min(upperBoundOf(i), max);
+            }
+        }
+        return max();
+    }
+
+    int[] counts() {
+        return counts.clone();
+    }
+
+    /** Snapshot encoding: bucket count, counts, both window maxima and the window epoch. */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeShort(counts.length);
+        for (int count : counts) {
+            out.writeInt(count);
+        }
+        out.writeLong(maxCurrentWindow);
+        out.writeLong(maxPreviousWindow);
+        out.writeLong(windowEpoch);
+    }
+
+    void readFrom(DataInput in) throws IOException {
+        int buckets = in.readUnsignedShort();
+        for (int i = 0; i < buckets; i++) {
+            int count = in.readInt();
+            if (i < counts.length) {
+                counts[i] = count;
+            }
+        }
+        maxCurrentWindow = in.readLong();
+        maxPreviousWindow = in.readLong();
+        windowEpoch = in.readLong();
+    }
+
+    /** Lock-free recorder used on the hot path; drained into plain count arrays. */
+    static final class Recorder {
+        private final AtomicIntegerArray counts;
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Recorder(int buckets) {
+            this.counts = new AtomicIntegerArray(buckets);
+        }
+
+        void record(long value) {
+            counts.incrementAndGet(bucketOf(value, counts.length()));
+            max.accumulate(value);
+        }
+
+        int[] drainCounts() {
+            int[] drained = new int[counts.length()];
+            for (int i = 0; i < drained.length; i++) {
+                drained[i] = counts.getAndSet(i, 0);
+            }
+            return drained;
+        }
+
+        long drainMax() {
+            return max.getThenReset();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package cluster.java.cafe24;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.pattern.Patterns;
+import cluster.java.cafe24.Cafe24ApiManagerActor.ApiRequest;
+import cluster.java.cafe24.Cafe24ApiManagerActor.ApiResponse;
+import cluster.java.kafka.KafkaBulkPublisher;
+import cluster.java.kafka.KafkaRecordProcessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Kafka consumer processor that turns mall API jobs ({"mallId":..,"word":..,"priority":..}, mallId
+ * defaulting to the record key) into calls on the throttled per-mall path and completes, letting the
+ * pipeline commit the offset, only once the call has an upstream answer.
+ *
+ * A call shed by a full mall queue (503) or still throttled after the caller's retries (429) is asked
+ * again after the retry policy's backoff, never shorter than the Retry-After it came with, up to the
+ * policy's maxRetries. The record's processing stays open meanwhile, so with the pipeline's bounded
+ * parallelism a backed-up mall slows down consumption instead of losing jobs. A job still shed after
+ * the last retry, or not answered within the ask timeout (the call may have run, so it is not asked
+ * again), is dead-lettered: published unchanged to the dead-letter publisher's topic, or only logged
+ * without one. Either way its offset is committed and the mall's records move on. Other statuses are
+ * final and committed; a malformed job is logged and skipped.
+ */
+public final class Cafe24KafkaBridge implements KafkaRecordProcessor {
+
+    private static final ObjectReader JOB_READER = new ObjectMapper().readerFor(ApiRequest.class);
+
+    private final ActorSystem system;
+    private final ActorRef callRouter;
+    private final Duration askTimeout;
+    private final Cafe24RetryPolicy backoff;
+    // null logs dead letters only
+    private final KafkaBulkPublisher deadLetters;
+    private final LoggingAdapter log;
+
+    /** callRouter is where single calls go: the mall shard region in sharding mode, otherwise the manager. */
+    public Cafe24KafkaBridge(
+        ActorSystem system,
+        ActorRef callRouter,
+        Duration askTimeout,
+        Cafe24RetryPolicy backoff,
+        KafkaBulkPublisher deadLetters) {
+        this.system = system;
+        this.callRouter = callRouter;
+        this.askTimeout = askTimeout;
+        this.backoff = backoff;
+        this.deadLetters = deadLetters;
+        this.log = Logging.getLogger(system, Cafe24KafkaBridge.class);
+    }
+
+    @Override
+    public CompletionStage<ApiResponse> process(ConsumerRecord<String, String> record) {
+        ApiRequest job;
+        try {
+            job = JOB_READER.readValue(record.value());
+        } catch (IOException | RuntimeException e) {
+            job = null;
+        }
+        if (job != null && job.mallId() == null && record.key() != null) {
+            job = new ApiRequest(record.key(), job.word(), job.priority());
+        }
+        if (!Cafe24ApiManagerActor.isCallable(job)) {
+            log.warning(
+                "Skipping malformed Cafe24 job. topic={}, partition={}, offset={}",
+                record.topic(),
+                record.partition(),
+                record.offset());
+            return CompletableFuture.completedFuture(null);
+        }
+        return call(record, job, 0);
+    }
+
+    private CompletionStage<ApiResponse> call(ConsumerRecord<String, String> record, ApiRequest job, int retry) {
+        return Patterns.ask(callRouter, job, askTimeout)
+            .<CompletionStage<ApiResponse>>handle((reply, failure) -> {
+                if (failure != null) {
+                    return deadLetter(record, null, "no answer within " + askTimeout.toMillis() + "ms");
+                }
+                ApiResponse response = (ApiResponse) reply;
+                if (response.statusCode() != 503 && response.statusCode() != 429) {
+                    return CompletableFuture.completedFuture(response);
+                }
+                if (retry >= backoff.maxRetries()) {
+                    return deadLetter(
+                        record, response, "status " + response.statusCode() + " after " + retry + " retries");
+                }
+                return Patterns.after(
+                    backoff.delayBeforeRetry(retry, response.retryAfterSeconds() * 1000L),
+                    system.scheduler(),
+                    system.dispatcher(),
+                    () -> call(record, job, retry + 1));
+            })
+            .thenCompose(next -> next);
+    }
+
+    /** Completes once the dead letter is published; fails, so the record is read again, if it cannot be. */
+    private CompletionStage<ApiResponse> deadLetter(
+        ConsumerRecord<String, String> record, ApiResponse lastResponse, String reason) {
+        log.warning(
+            "Dead-lettering Cafe24 job: {}. topic={}, partition={}, offset={}",
+            reason,
+            record.topic(),
+            record.partition(),
+            record.offset());
+        if (deadLetters == null) {
+            return CompletableFuture.completedFuture(lastResponse);
+        }
+        return deadLetters.publishBatch(List.of(new KafkaBulkPublisher.PublishRecord(record.key(), record.value())))
+            .thenApply(published -> {
+                if (!published.success()) {
+                    throw new IllegalStateException("dead letter not published: " + published.error());
+                }
+                return lastResponse;
+            });
+    }
+}
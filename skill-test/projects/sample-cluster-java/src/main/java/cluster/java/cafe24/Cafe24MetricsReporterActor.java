@@ -0,0 +1,64 @@
+package cluster.java.cafe24;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Flushes a node's {@link Cafe24NodeMetrics} to the metrics singleton as one delta batch per interval,
+ * so metrics traffic scales with the flush rate instead of the call rate.
+ */
+public class Cafe24MetricsReporterActor extends AbstractActor {
+
+    private enum Flush implements Serializable {
+        INSTANCE
+    }
+
+    private final Cafe24NodeMetrics nodeMetrics;
+    private final ActorRef metricsActor;
+    private final Duration flushInterval;
+    private Cancellable flushTask;
+
+    public static Props props(Cafe24NodeMetrics nodeMetrics, ActorRef metricsActor, Duration flushInterval) {
+        return Props.create(
+            Cafe24MetricsReporterActor.class,
+            () -> new Cafe24MetricsReporterActor(nodeMetrics, metricsActor, flushInterval));
+    }
+
+    public Cafe24MetricsReporterActor(Cafe24NodeMetrics nodeMetrics, ActorRef metricsActor, Duration flushInterval) {
+        this.nodeMetrics = nodeMetrics;
+        this.metricsActor = metricsActor;
+        this.flushInterval = flushInterval;
+    }
+
+    @Override
+    public void preStart() {
+        flushTask = getContext().getSystem().scheduler().scheduleWithFixedDelay(
+            flushInterval, flushInterval, getSelf(), Flush.INSTANCE, getContext().getDispatcher(), getSelf());
+    }
+
+    @Override
+    public void postStop() {
+        flushTask.cancel();
+        flush();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+            .match(Flush.class, ignored -> flush())
+            .build();
+    }
+
+    private void flush() {
+        List<Cafe24MetricsSingletonActor.MallCallDelta> deltas = nodeMetrics.drain();
+        if (!deltas.isEmpty()) {
+            metricsActor.tell(new Cafe24MetricsSingletonActor.RecordCallBatch(deltas), ActorRef.noSender());
+        }
+    }
+}
@@ -2,63 +2,391 @@ package cluster.java.cafe24;
 
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class Cafe24MetricsSingletonActor extends AbstractActor {
 
+    /** Malls tracked per ranking metric; GetTopMalls answers from these candidates only. */
+    public static final int TOP_MALLS_CAPACITY = 256;
+
     public record RecordCall(String mallId, int statusCode, long queueDelayMs) implements Serializable {
     }
 
-    public record GetMallMetrics(String mallId) implements Serializable {
+    /** Bucket counts of a {@link Cafe24Histogram} layout plus the exact max seen. */
+    public record HistogramDelta(int[] counts, long max) implements Serializable {
+    }
+
+    /** Per-mall counts accumulated on one node since its previous flush; shed calls are not in calls. */
+    public record MallCallDelta(
+        String mallId,
+        long calls,
+        long throttled429,
+        long shed,
+        long sumQueueDelayMs,
+        HistogramDelta queueDelayMs,
+        HistogramDelta upstreamLatencyMs,
+        HistogramDelta retries
+    ) implements Serializable {
+
+        boolean isEmpty() {
+            return calls == 0 && shed == 0;
+        }
+    }
+
+    /** Periodic delta batch from a node's {@link Cafe24MetricsReporterActor}. */
+    public record RecordCallBatch(List<MallCallDelta> deltas) implements Serializable {
+    }
+
+    /** Which period GetMallMetrics counters cover; LIFETIME is since the singleton started. */
+    public enum MetricsWindow {
+        LIFETIME,
+        LAST_1S,
+        LAST_10S,
+        LAST_1M,
+        LAST_5M
+    }
+
+    public record GetMallMetrics(String mallId, MetricsWindow window) implements Serializable {
+        public GetMallMetrics(String mallId) {
+            this(mallId, MetricsWindow.LIFETIME);
+        }
+    }
+
+    /** Ranking metric for GetTopMalls; QUEUE_DELAY_MS ranks by total queue delay in the window. */
+    public enum TopMetric {
+        CALLS,
+        THROTTLED_429,
+        QUEUE_DELAY_MS
+    }
+
+    public record GetTopMalls(TopMetric metric, int n, MetricsWindow window) implements Serializable {
+    }
+
+    public record TopMall(
+        String mallId,
+        long value,
+        long totalCalls,
+        long throttled429,
+        double avgQueueDelayMs
+    ) implements Serializable {
     }
 
-    public record MallMetrics(String mallId, long totalCalls, long throttled429, double avgQueueDelayMs)
-        implements Serializable {
+    public record TopMalls(TopMetric metric, MetricsWindow window, List<TopMall> malls) implements Serializable {
+    }
+
+    /** Percentiles over the sliding (exponentially decayed) histogram window. */
+    public record Percentiles(long samples, long p50, long p95, long p99, long max) implements Serializable {
+    }
+
+    /**
+     * totalCalls, throttled429 and avgQueueDelayMs cover the requested window; shed (calls answered
+     * 503 without reaching the upstream because the mall's queue was full) is always lifetime.
+     */
+    public record MallMetrics(
+        String mallId,
+        MetricsWindow window,
+        long totalCalls,
+        long throttled429,
+        long shed,
+        double avgQueueDelayMs,
+        Percentiles queueDelayMs,
+        Percentiles upstreamLatencyMs,
+        Percentiles retries
+    ) implements Serializable {
     }
 
     public enum Stop implements Serializable {
         INSTANCE
     }
 
+    private enum SnapshotTick {
+        INSTANCE
+    }
+
     private static final class MetricState {
         long totalCalls;
         long throttled429;
+        long shed;
         long sumQueueDelayMs;
+        final Cafe24Histogram queueDelayMs = new Cafe24Histogram(Cafe24Histogram.LATENCY_BUCKETS);
+        final Cafe24Histogram upstreamLatencyMs = new Cafe24Histogram(Cafe24Histogram.LATENCY_BUCKETS);
+        final Cafe24Histogram retries = new Cafe24Histogram(Cafe24Histogram.RETRY_BUCKETS);
+        final Cafe24RollingWindow rolling = new Cafe24RollingWindow();
     }
 
     private final Map<String, MetricState> stateByMall = new HashMap<>();
+    private final Map<TopMetric, Cafe24TopMallsSketch> topSketches = new EnumMap<>(TopMetric.class);
+    private final Set<String> dirtyMalls = new HashSet<>();
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+    private final long histogramWindowMillis;
+    private final Path snapshotDirectory;
+    private final Duration snapshotInterval;
+    private Cafe24MetricsSnapshotStore snapshotStore;
+    private Cancellable snapshotTask;
+    private long sketchEpoch;
 
     public static Props props() {
-        return Props.create(Cafe24MetricsSingletonActor.class, Cafe24MetricsSingletonActor::new);
+        return props(Duration.ofMinutes(1));
+    }
+
+    /** histogramWindow: percentile counts are halved once per window, so they follow the recent past. */
+    public static Props props(Duration histogramWindow) {
+        return props(histogramWindow, null, null);
+    }
+
+    /**
+     * snapshotDirectory: when non-null, state is restored from it on start and the malls changed since
+     * the previous write are journaled every snapshotInterval and on stop, so a singleton handover
+     * keeps the totals. The directory must be reachable from every node that can host the singleton.
+     */
+    public static Props props(Duration histogramWindow, Path snapshotDirectory, Duration snapshotInterval) {
+        return Props.create(
+            Cafe24MetricsSingletonActor.class,
+            () -> new Cafe24MetricsSingletonActor(histogramWindow, snapshotDirectory, snapshotInterval));
+    }
+
+    public Cafe24MetricsSingletonActor(Duration histogramWindow, Path snapshotDirectory, Duration snapshotInterval) {
+        this.histogramWindowMillis = histogramWindow.toMillis();
+        this.snapshotDirectory = snapshotDirectory;
+        this.snapshotInterval = snapshotInterval;
+        for (TopMetric metric : TopMetric.values()) {
+            topSketches.put(metric, new Cafe24TopMallsSketch(TOP_MALLS_CAPACITY));
+        }
+        this.sketchEpoch = currentWindowEpoch();
+    }
+
+    @Override
+    public void preStart() {
+        if (snapshotDirectory == null) {
+            return;
+        }
+        try {
+            snapshotStore = new Cafe24MetricsSnapshotStore(snapshotDirectory);
+            for (Map.Entry<String, byte[]> record : snapshotStore.load().entrySet()) {
+                MetricState state = decode(record.getValue());
+                stateByMall.put(record.getKey(), state);
+                rankCall(record.getKey(), state.totalCalls, state.throttled429, state.sumQueueDelayMs, sketchEpoch);
+            }
+            log.info("Restored cafe24 metrics for {} malls from {}", stateByMall.size(), snapshotDirectory);
+        } catch (IOException e) {
+            log.warning("Cafe24 metrics snapshot restore failed, starting empty: {}", e.getMessage());
+            stateByMall.clear();
+        }
+        snapshotTask = getContext().getSystem().scheduler().scheduleWithFixedDelay(
+            snapshotInterval, snapshotInterval, getSelf(), SnapshotTick.INSTANCE, getContext().getDispatcher(), getSelf());
+    }
+
+    @Override
+    public void postStop() {
+        if (snapshotTask != null) {
+            snapshotTask.cancel();
+        }
+        persistDirtyMalls();
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
             .match(RecordCall.class, this::onRecordCall)
+            .match(RecordCallBatch.class, this::onRecordCallBatch)
             .match(GetMallMetrics.class, this::onGetMallMetrics)
+            .match(GetTopMalls.class, this::onGetTopMalls)
+            .match(SnapshotTick.class, tick -> persistDirtyMalls())
             .match(Stop.class, stop -> getContext().stop(getSelf()))
             .build();
     }
 
     private void onRecordCall(RecordCall msg) {
         MetricState state = stateByMall.computeIfAbsent(msg.mallId(), key -> new MetricState());
+        dirtyMalls.add(msg.mallId());
         state.totalCalls += 1;
         if (msg.statusCode() == 429) {
             state.throttled429 += 1;
         }
         state.sumQueueDelayMs += msg.queueDelayMs();
+        state.queueDelayMs.record(msg.queueDelayMs(), currentWindowEpoch());
+        state.rolling.add(System.currentTimeMillis(), 1, msg.statusCode() == 429 ? 1 : 0, msg.queueDelayMs());
+        rankCall(msg.mallId(), 1, msg.statusCode() == 429 ? 1 : 0, msg.queueDelayMs(), currentWindowEpoch());
+    }
+
+    private void onRecordCallBatch(RecordCallBatch msg) {
+        long nowMillis = System.currentTimeMillis();
+        long epoch = currentWindowEpoch();
+        for (MallCallDelta delta : msg.deltas()) {
+            MetricState state = stateByMall.computeIfAbsent(delta.mallId(), key -> new MetricState());
+            dirtyMalls.add(delta.mallId());
+            state.totalCalls += delta.calls();
+            state.throttled429 += delta.throttled429();
+            state.shed += delta.shed();
+            state.sumQueueDelayMs += delta.sumQueueDelayMs();
+            state.queueDelayMs.merge(delta.queueDelayMs().counts(), delta.queueDelayMs().max(), epoch);
+            state.upstreamLatencyMs.merge(delta.upstreamLatencyMs().counts(), delta.upstreamLatencyMs().max(), epoch);
+            state.retries.merge(delta.retries().counts(), delta.retries().max(), epoch);
+            state.rolling.add(nowMillis, delta.calls(), delta.throttled429(), delta.sumQueueDelayMs());
+            rankCall(delta.mallId(), delta.calls(), delta.throttled429(), delta.sumQueueDelayMs(), epoch);
+        }
+    }
+
+    private void rankCall(String mallId, long calls, long throttled429, long sumQueueDelayMs, long epoch) {
+        decaySketchesTo(epoch);
+        topSketches.get(TopMetric.CALLS).add(mallId, calls);
+        topSketches.get(TopMetric.THROTTLED_429).add(mallId, throttled429);
+        topSketches.get(TopMetric.QUEUE_DELAY_MS).add(mallId, sumQueueDelayMs);
+    }
+
+    private void decaySketchesTo(long epoch) {
+        for (long elapsed = Math.min(epoch - sketchEpoch, 64); elapsed > 0; elapsed--) {
+            topSketches.values().forEach(Cafe24TopMallsSketch::halve);
+        }
+        sketchEpoch = Math.max(sketchEpoch, epoch);
     }
 
     private void onGetMallMetrics(GetMallMetrics msg) {
         MetricState state = stateByMall.getOrDefault(msg.mallId(), new MetricState());
-        double avgDelay = state.totalCalls == 0 ? 0.0 : (double) state.sumQueueDelayMs / state.totalCalls;
+        MetricsWindow window = msg.window() != null ? msg.window() : MetricsWindow.LIFETIME;
+        Cafe24RollingWindow.Totals totals = totals(state, window, System.currentTimeMillis());
+        double avgDelay = totals.calls() == 0 ? 0.0 : (double) totals.sumQueueDelayMs() / totals.calls();
+        long epoch = currentWindowEpoch();
         getSender().tell(
-            new MallMetrics(msg.mallId(), state.totalCalls, state.throttled429, avgDelay),
+            new MallMetrics(
+                msg.mallId(),
+                window,
+                totals.calls(),
+                totals.throttled429(),
+                state.shed,
+                avgDelay,
+                percentiles(state.queueDelayMs, epoch),
+                percentiles(state.upstreamLatencyMs, epoch),
+                percentiles(state.retries, epoch)),
             getSelf());
     }
+
+    /**
+     * Ranks only the sketch candidates by their exact totals in the window, so the cost depends on
+     * TOP_MALLS_CAPACITY rather than on the number of malls. Sketch counts decay once per histogram
+     * window, so malls that were hot long ago but quiet since may drop out of LIFETIME rankings.
+     */
+    private void onGetTopMalls(GetTopMalls msg) {
+        MetricsWindow window = msg.window() != null ? msg.window() : MetricsWindow.LIFETIME;
+        int n = Math.max(0, Math.min(msg.n(), TOP_MALLS_CAPACITY));
+        long nowMillis = System.currentTimeMillis();
+        decaySketchesTo(currentWindowEpoch());
+
+        List<TopMall> ranked = new ArrayList<>();
+        for (String mallId : topSketches.get(msg.metric()).candidates()) {
+            MetricState state = stateByMall.get(mallId);
+            if (state == null) {
+                continue;
+            }
+            Cafe24RollingWindow.Totals totals = totals(state, window, nowMillis);
+            long value = switch (msg.metric()) {
+                case CALLS -> totals.calls();
+                case THROTTLED_429 -> totals.throttled429();
+                case QUEUE_DELAY_MS -> totals.sumQueueDelayMs();
+            };
+            if (value > 0) {
+                double avgDelay = totals.calls() == 0 ? 0.0 : (double) totals.sumQueueDelayMs() / totals.calls();
+                ranked.add(new TopMall(mallId, value, totals.calls(), totals.throttled429(), avgDelay));
+            }
+        }
+        ranked.sort(Comparator.comparingLong(TopMall::value).reversed().thenComparing(TopMall::mallId));
+        getSender().tell(
+            new TopMalls(msg.metric(), window, List.copyOf(ranked.subList(0, Math.min(n, ranked.size())))),
+            getSelf());
+    }
+
+    private static Cafe24RollingWindow.Totals totals(MetricState state, MetricsWindow window, long nowMillis) {
+        return window == MetricsWindow.LIFETIME
+            ? new Cafe24RollingWindow.Totals(state.totalCalls, state.throttled429, state.sumQueueDelayMs)
+            : state.rolling.totals(window, nowMillis);
+    }
+
+    /** Write cost per tick is bounded by the malls that changed since the previous tick. */
+    private void persistDirtyMalls() {
+        if (snapshotStore == null || dirtyMalls.isEmpty()) {
+            return;
+        }
+        try {
+            Map<String, byte[]> records = new HashMap<>();
+            for (String mallId : dirtyMalls) {
+                records.put(mallId, encode(stateByMall.get(mallId)));
+            }
+            snapshotStore.append(records);
+            dirtyMalls.clear();
+            if (snapshotStore.shouldCompact()) {
+                Map<String, byte[]> all = new HashMap<>();
+                for (Map.Entry<String, MetricState> entry : stateByMall.entrySet()) {
+                    all.put(entry.getKey(), encode(entry.getValue()));
+                }
+                snapshotStore.writeSnapshot(all);
+            }
+        } catch (IOException e) {
+            // dirty malls stay marked and are retried on the next tick
+            log.warning("Cafe24 metrics snapshot write failed: {}", e.getMessage());
+        }
+    }
+
+    private static byte[] encode(MetricState state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(state.totalCalls);
+            out.writeLong(state.throttled429);
+            out.writeLong(state.sumQueueDelayMs);
+            state.queueDelayMs.writeTo(out);
+            state.upstreamLatencyMs.writeTo(out);
+            state.retries.writeTo(out);
+            state.rolling.writeTo(out);
+            out.writeLong(state.shed);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static MetricState decode(byte[] encoded) throws IOException {
+        MetricState state = new MetricState();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            state.totalCalls = in.readLong();
+            state.throttled429 = in.readLong();
+            state.sumQueueDelayMs = in.readLong();
+            state.queueDelayMs.readFrom(in);
+            state.upstreamLatencyMs.readFrom(in);
+            state.retries.readFrom(in);
+            state.rolling.readFrom(in);
+            state.shed = in.readLong();
+        }
+        return state;
+    }
+
+    private long currentWindowEpoch() {
+        return System.currentTimeMillis() / histogramWindowMillis;
+    }
+
+    private static Percentiles percentiles(Cafe24Histogram histogram, long epoch) {
+        histogram.decayTo(epoch);
+        return new Percentiles(
+            histogram.count(),
+            histogram.percentile(0.50),
+            histogram.percentile(0.95),
+            histogram.percentile(0.99),
+            histogram.max());
+    }
 }
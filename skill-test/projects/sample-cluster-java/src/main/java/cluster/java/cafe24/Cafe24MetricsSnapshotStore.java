@@ -0,0 +1,146 @@
+package cluster.java.cafe24;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * File-backed snapshot store for the metrics singleton: a full snapshot file plus an append-only
+ * journal of per-mall records (latest record per mall wins). Each flush appends only dirty malls;
+ * once the journal outgrows the snapshot it is compacted into a new full snapshot.
+ *
+ * Both files carry a generation number and the journal is only replayed on top of the snapshot of
+ * the same generation, so a crash between writing a snapshot and resetting the journal cannot
+ * replay stale records. A torn tail record (crash mid-append) ends the replay.
+ * Not thread-safe; owned by {@link Cafe24MetricsSingletonActor}.
+ */
+final class Cafe24MetricsSnapshotStore {
+
+    private static final int MAGIC = 0xCAF24E75;
+    private static final int FORMAT_VERSION = 1;
+    private static final long MIN_COMPACTION_BYTES = 1L << 20;
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private long generation;
+    private long snapshotBytes;
+    private long journalBytes;
+
+    Cafe24MetricsSnapshotStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.snapshotFile = directory.resolve("cafe24-metrics.snapshot");
+        this.journalFile = directory.resolve("cafe24-metrics.journal");
+    }
+
+    /** Reads the latest snapshot and replays the matching journal; mallId -> encoded mall state. */
+    Map<String, byte[]> load() throws IOException {
+        Map<String, byte[]> records = new HashMap<>();
+        generation = 0;
+        try (DataInputStream in = open(snapshotFile)) {
+            generation = readHeader(in);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                readRecord(in, records);
+            }
+            snapshotBytes = Files.size(snapshotFile);
+        } catch (NoSuchFileException e) {
+            snapshotBytes = 0;
+        }
+        try (DataInputStream in = open(journalFile)) {
+            if (readHeader(in) == generation) {
+                while (readRecord(in, records)) {
+                    // latest record per mall wins
+                }
+            }
+        } catch (NoSuchFileException | EOFException e) {
+            // no journal, or torn header: the snapshot alone is the latest state
+        }
+        writeSnapshot(records);
+        return records;
+    }
+
+    /** Appends the dirty malls' current state to the journal. */
+    void append(Map<String, byte[]> dirtyRecords) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(journalFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            for (Map.Entry<String, byte[]> record : dirtyRecords.entrySet()) {
+                writeRecord(out, record.getKey(), record.getValue());
+            }
+            journalBytes += out.size();
+        }
+    }
+
+    boolean shouldCompact() {
+        return journalBytes > Math.max(MIN_COMPACTION_BYTES, snapshotBytes);
+    }
+
+    /** Writes a full snapshot of the next generation, then starts an empty journal for it. */
+    void writeSnapshot(Map<String, byte[]> records) throws IOException {
+        long nextGeneration = generation + 1;
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            writeHeader(out, nextGeneration);
+            out.writeInt(records.size());
+            for (Map.Entry<String, byte[]> record : records.entrySet()) {
+                writeRecord(out, record.getKey(), record.getValue());
+            }
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        generation = nextGeneration;
+        snapshotBytes = Files.size(snapshotFile);
+        resetJournal();
+    }
+
+    private void resetJournal() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(journalFile))) {
+            writeHeader(out, generation);
+            journalBytes = out.size();
+        }
+    }
+
+    private static DataInputStream open(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+    }
+
+    private static void writeHeader(DataOutputStream out, long generation) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeLong(generation);
+    }
+
+    private static long readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readUnsignedShort() != FORMAT_VERSION) {
+            throw new IOException("unsupported cafe24 metrics snapshot format");
+        }
+        return in.readLong();
+    }
+
+    private static void writeRecord(DataOutputStream out, String mallId, byte[] state) throws IOException {
+        out.writeUTF(mallId);
+        out.writeInt(state.length);
+        out.write(state);
+    }
+
+    /** Returns false at the end of the stream, including a torn last record. */
+    private static boolean readRecord(DataInputStream in, Map<String, byte[]> records) throws IOException {
+        try {
+            String mallId = in.readUTF();
+            byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+            records.put(mallId, state);
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+}
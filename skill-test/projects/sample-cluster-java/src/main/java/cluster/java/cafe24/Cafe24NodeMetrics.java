@@ -0,0 +1,89 @@
+package cluster.java.cafe24;
+
+import cluster.java.cafe24.Cafe24MetricsSingletonActor.HistogramDelta;
+import cluster.java.cafe24.Cafe24MetricsSingletonActor.MallCallDelta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-local Cafe24 call counters. Mall callers record into striped counters without sending
+ * a message per call; {@link Cafe24MetricsReporterActor} periodically drains them as deltas
+ * to the cluster-wide {@link Cafe24MetricsSingletonActor}.
+ */
+public final class Cafe24NodeMetrics {
+
+    private static final int IDLE_DRAINS_BEFORE_REMOVAL = 2;
+
+    private static final class MallCounters {
+        final LongAdder calls = new LongAdder();
+        final LongAdder throttled429 = new LongAdder();
+        final LongAdder shed = new LongAdder();
+        final LongAdder sumQueueDelayMs = new LongAdder();
+        final Cafe24Histogram.Recorder queueDelayMs = new Cafe24Histogram.Recorder(Cafe24Histogram.LATENCY_BUCKETS);
+        final Cafe24Histogram.Recorder upstreamLatencyMs =
+            new Cafe24Histogram.Recorder(Cafe24Histogram.LATENCY_BUCKETS);
+        final Cafe24Histogram.Recorder retries = new Cafe24Histogram.Recorder(Cafe24Histogram.RETRY_BUCKETS);
+        // only touched by the draining thread
+        int idleDrains;
+
+        MallCallDelta drain(String mallId) {
+            return new MallCallDelta(
+                mallId,
+                calls.sumThenReset(),
+                throttled429.sumThenReset(),
+                shed.sumThenReset(),
+                sumQueueDelayMs.sumThenReset(),
+                drain(queueDelayMs),
+                drain(upstreamLatencyMs),
+                drain(retries));
+        }
+
+        private static HistogramDelta drain(Cafe24Histogram.Recorder recorder) {
+            return new HistogramDelta(recorder.drainCounts(), recorder.drainMax());
+        }
+    }
+
+    private final Map<String, MallCounters> countersByMall = new ConcurrentHashMap<>();
+
+    public void record(String mallId, int statusCode, long queueDelayMs, long upstreamLatencyMs, int retries) {
+        MallCounters counters = countersByMall.computeIfAbsent(mallId, key -> new MallCounters());
+        counters.calls.increment();
+        if (statusCode == 429) {
+            counters.throttled429.increment();
+        }
+        counters.sumQueueDelayMs.add(queueDelayMs);
+        counters.queueDelayMs.record(queueDelayMs);
+        counters.upstreamLatencyMs.record(upstreamLatencyMs);
+        counters.retries.record(retries);
+    }
+
+    /** A call rejected before reaching the upstream because the mall's queue was full or closed. */
+    public void recordShed(String mallId) {
+        countersByMall.computeIfAbsent(mallId, key -> new MallCounters()).shed.increment();
+    }
+
+    /** Returns and resets the deltas recorded since the previous drain. Single drainer only. */
+    public List<MallCallDelta> drain() {
+        List<MallCallDelta> deltas = new ArrayList<>();
+        for (Map.Entry<String, MallCounters> entry : countersByMall.entrySet()) {
+            MallCounters counters = entry.getValue();
+            MallCallDelta delta = counters.drain(entry.getKey());
+            if (delta.isEmpty() && ++counters.idleDrains >= IDLE_DRAINS_BEFORE_REMOVAL) {
+                countersByMall.remove(entry.getKey(), counters);
+                // a call racing with the removal is picked up here instead of being lost
+                delta = counters.drain(entry.getKey());
+            } else if (!delta.isEmpty()) {
+                counters.idleDrains = 0;
+            }
+
+            if (!delta.isEmpty()) {
+                deltas.add(delta);
+            }
+        }
+        return deltas;
+    }
+}
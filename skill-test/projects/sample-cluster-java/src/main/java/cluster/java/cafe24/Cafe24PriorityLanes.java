@@ -0,0 +1,107 @@
+package cluster.java.cafe24;
+
+import akka.NotUsed;
+import akka.stream.BoundedSourceQueue;
+import akka.stream.QueueOfferResult;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Source;
+import cluster.java.cafe24.Cafe24ApiManagerActor.CallPriority;
+import cluster.java.cafe24.Cafe24ApiManagerActor.LaneQueueStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One bounded queue per {@link CallPriority} for a mall stream, merged into a single source either
+ * weighted-fair ({@code mergePrioritized} by the priority weights) or strictly by priority
+ * ({@code mergePreferred}, a lower lane only moves while every higher lane is empty).
+ * The queues are materialized with the mall stream itself, so {@link #source()} must be run
+ * (once) before the first {@link #offer}.
+ * Offers come from the owning actor, which answers a rejected offer itself; {@link #started} is
+ * called from the stream after the throttle.
+ */
+final class Cafe24PriorityLanes<T> {
+
+    private static final CallPriority[] PRIORITIES = CallPriority.values();
+
+    @SuppressWarnings("unchecked")
+    private final BoundedSourceQueue<T>[] queues = new BoundedSourceQueue[PRIORITIES.length];
+    private final Lane[] lanes = new Lane[PRIORITIES.length];
+    private final Source<T, NotUsed> merged;
+
+    private static final class Lane {
+        final LongAdder enqueued = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder started = new LongAdder();
+        final LongAdder sumQueueDelayMs = new LongAdder();
+        final LongAccumulator maxQueueDelayMs = new LongAccumulator(Math::max, 0);
+    }
+
+    Cafe24PriorityLanes(int capacityPerLane, boolean strictPriority) {
+        for (CallPriority priority : PRIORITIES) {
+            lanes[priority.ordinal()] = new Lane();
+        }
+        // Merged from the lowest lane up, each higher lane joining what is below it.
+        Source<T, NotUsed> merged = lane(PRIORITIES[PRIORITIES.length - 1], capacityPerLane);
+        int weightBelow = PRIORITIES[PRIORITIES.length - 1].weight();
+        for (int i = PRIORITIES.length - 2; i >= 0; i--) {
+            Source<T, NotUsed> higher = lane(PRIORITIES[i], capacityPerLane);
+            // preferred = false: the merged-in (higher) source wins, not the one the merge is called on
+            merged = strictPriority
+                ? merged.mergePreferredMat(higher, false, false, Keep.left())
+                : merged.mergePrioritizedMat(higher, weightBelow, PRIORITIES[i].weight(), false, Keep.left());
+            weightBelow += PRIORITIES[i].weight();
+        }
+        this.merged = merged;
+    }
+
+    private Source<T, NotUsed> lane(CallPriority priority, int capacity) {
+        return Source.<T>queue(capacity).mapMaterializedValue(queue -> {
+            queues[priority.ordinal()] = queue;
+            return NotUsed.getInstance();
+        });
+    }
+
+    Source<T, NotUsed> source() {
+        return merged;
+    }
+
+    QueueOfferResult offer(CallPriority priority, T element) {
+        QueueOfferResult result = queues[priority.ordinal()].offer(element);
+        Lane lane = lanes[priority.ordinal()];
+        if (result == QueueOfferResult.enqueued()) {
+            lane.enqueued.increment();
+        } else {
+            lane.dropped.increment();
+        }
+        return result;
+    }
+
+    /** An element of this lane passed the throttle after waiting queueDelayMs since its offer. */
+    void started(CallPriority priority, long queueDelayMs) {
+        Lane lane = lanes[priority.ordinal()];
+        lane.started.increment();
+        lane.sumQueueDelayMs.add(queueDelayMs);
+        lane.maxQueueDelayMs.accumulate(queueDelayMs);
+    }
+
+    List<LaneQueueStats> snapshot() {
+        List<LaneQueueStats> stats = new ArrayList<>(PRIORITIES.length);
+        for (CallPriority priority : PRIORITIES) {
+            Lane lane = lanes[priority.ordinal()];
+            long started = lane.started.sum();
+            long enqueued = lane.enqueued.sum();
+            // Counted rather than queue.size(), so calls already pulled by the merge or throttle are included.
+            stats.add(new LaneQueueStats(
+                priority,
+                (int) Math.max(0, enqueued - started),
+                enqueued,
+                lane.dropped.sum(),
+                started == 0 ? 0.0 : (double) lane.sumQueueDelayMs.sum() / started,
+                lane.maxQueueDelayMs.get()));
+        }
+        return stats;
+    }
+}
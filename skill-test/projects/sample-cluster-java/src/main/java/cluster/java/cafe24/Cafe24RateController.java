@@ -0,0 +1,67 @@
+package cluster.java.cafe24;
+
+/**
+ * Per-mall AIMD rate controller driven by the upstream bucket headers.
+ *
+ * Below 50% bucket usage the rate grows additively (by 5% of the configured maximum, at least
+ * 0.5 rps, per second of responses); above 80% it backs off by 15% per response, and a 429 halves
+ * it and pauses sending for the advised callRemainSeconds. The burst allowance follows the
+ * headroom last reported by the bucket, so the throttle never sends more at once than fits.
+ * Thread-safe: responses complete on client threads while the throttle stage reads the rate.
+ */
+final class Cafe24RateController {
+
+    private static final double LOW_WATER = 0.5;
+    private static final double HIGH_WATER = 0.8;
+    private static final double HIGH_WATER_BACKOFF = 0.85;
+    private static final double THROTTLED_BACKOFF = 0.5;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final double maxRate;
+    private final double minRate;
+    private final double increasePerSecond;
+    private double rate;
+    private int headroom = Integer.MAX_VALUE;
+    private long pausedUntilNanos = System.nanoTime();
+
+    Cafe24RateController(double maxRate) {
+        this.maxRate = maxRate;
+        this.minRate = Math.min(maxRate, 0.1);
+        this.increasePerSecond = Math.max(0.5, maxRate * 0.05);
+        this.rate = maxRate;
+    }
+
+    synchronized void onResult(int statusCode, int bucketUsed, int bucketMax, int callRemainSeconds, long nowNanos) {
+        if (statusCode == 429) {
+            rate = Math.max(minRate, rate * THROTTLED_BACKOFF);
+            headroom = 0;
+            pausedUntilNanos = nowNanos + Math.max(1, callRemainSeconds) * NANOS_PER_SECOND;
+            return;
+        }
+        if (bucketMax <= 0) {
+            // no bucket headers (e.g. transport failure): nothing to learn from
+            return;
+        }
+        headroom = Math.max(0, bucketMax - bucketUsed);
+        double usage = (double) bucketUsed / bucketMax;
+        if (usage > HIGH_WATER) {
+            rate = Math.max(minRate, rate * HIGH_WATER_BACKOFF);
+        } else if (usage < LOW_WATER) {
+            // per-response step of increasePerSecond / rate adds ~increasePerSecond every second
+            rate = Math.min(maxRate, rate + increasePerSecond / rate);
+        }
+    }
+
+    synchronized double rate() {
+        return rate;
+    }
+
+    /** Tokens the throttle may hold: the bucket's last reported headroom, at least 1, at most one second's rate. */
+    synchronized int burst() {
+        return (int) Math.max(1, Math.min(Math.ceil(rate), headroom));
+    }
+
+    synchronized long pausedUntilNanos() {
+        return pausedUntilNanos;
+    }
+}
@@ -0,0 +1,85 @@
+package cluster.java.cafe24;
+
+import cluster.java.cafe24.Cafe24ApiManagerActor.ApiResponse;
+import cluster.java.cafe24.Cafe24ApiManagerActor.MallCacheStats;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Read-through cache of one mall's successful responses by word, owned by its MallApiCallerActor.
+ * Not thread-safe; only touched from the caller's receive.
+ *
+ * Entries expire after the TTL and the least recently used ones are evicted once the summed weight
+ * (word plus result length, in chars) exceeds maxWeight. Concurrent misses for one word are coalesced
+ * by the caller's single-flight, not here.
+ */
+final class Cafe24ResponseCache {
+
+    private record Entry(ApiResponse response, long expiresAtNanos, int weight) {
+    }
+
+    private final long ttlNanos;
+    private final long maxWeight;
+    // access-ordered, so the first entry is always the least recently used word
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    Cafe24ResponseCache(Duration ttl, long maxWeight) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxWeight = maxWeight;
+    }
+
+    /** The cached response, or null on a miss. */
+    ApiResponse get(String word, long nowNanos) {
+        Entry entry = entries.get(word);
+        if (entry != null && entry.expiresAtNanos() - nowNanos <= 0) {
+            remove(word);
+            expirations += 1;
+            entry = null;
+        }
+        if (entry != null) {
+            hits += 1;
+            return entry.response();
+        }
+        misses += 1;
+        return null;
+    }
+
+    MallCacheStats stats(String mallId) {
+        return new MallCacheStats(
+            mallId, true, entries.size(), weight, hits, misses, evictions, expirations);
+    }
+
+    /** Caches a 200 response; anything else is not cached. */
+    void put(String word, ApiResponse response, long nowNanos) {
+        if (response.statusCode() != 200) {
+            return;
+        }
+        int entryWeight = word.length() + (response.result() != null ? response.result().length() : 0);
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        remove(word);
+        entries.put(word, new Entry(response, nowNanos + ttlNanos, entryWeight));
+        weight += entryWeight;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (weight > maxWeight) {
+            weight -= eldest.next().weight();
+            eldest.remove();
+            evictions += 1;
+        }
+    }
+
+    private void remove(String word) {
+        Entry removed = entries.remove(word);
+        if (removed != null) {
+            weight -= removed.weight();
+        }
+    }
+}
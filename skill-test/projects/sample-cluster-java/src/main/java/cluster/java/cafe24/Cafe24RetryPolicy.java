@@ -0,0 +1,34 @@
+package cluster.java.cafe24;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry policy for throttled (429) upstream calls.
+ *
+ * @param maxRetries retries per call after the first attempt; 0 disables retrying
+ * @param baseDelay  backoff before the first retry, doubled per retry
+ * @param maxDelay   cap on the exponential backoff
+ */
+public record Cafe24RetryPolicy(int maxRetries, Duration baseDelay, Duration maxDelay) implements Serializable {
+
+    public static Cafe24RetryPolicy defaults() {
+        return new Cafe24RetryPolicy(3, Duration.ofMillis(200), Duration.ofSeconds(10));
+    }
+
+    public Cafe24RetryPolicy withMaxRetries(int maxRetries) {
+        return new Cafe24RetryPolicy(maxRetries, baseDelay, maxDelay);
+    }
+
+    /**
+     * Equal-jitter exponential backoff: a random delay in [backoff/2, backoff] so retries of many
+     * calls throttled together spread out, never shorter than the wait the upstream advised.
+     */
+    Duration delayBeforeRetry(int retry, long advisedMillis) {
+        long backoffMillis = Math.min(maxDelay.toMillis(), baseDelay.toMillis() << Math.min(retry, 20));
+        long half = backoffMillis / 2;
+        long jittered = half + ThreadLocalRandom.current().nextLong(half + 1);
+        return Duration.ofMillis(Math.max(advisedMillis, jittered));
+    }
+}
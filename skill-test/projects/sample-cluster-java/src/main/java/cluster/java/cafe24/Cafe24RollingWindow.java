@@ -0,0 +1,123 @@
+package cluster.java.cafe24;
+
+import cluster.java.cafe24.Cafe24MetricsSingletonActor.MetricsWindow;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Per-mall rolling call counters on primitive ring buffers: 10 one-second slots (1s/10s windows)
+ * and 30 ten-second slots (1m/5m windows). Advancing time only zeroes the slots that rolled over,
+ * so recording and rolling never allocate. About 640 bytes of arrays per mall.
+ * Not thread-safe; owned by {@link Cafe24MetricsSingletonActor}.
+ */
+final class Cafe24RollingWindow {
+
+    private static final int FINE_SLOTS = 10;
+    private static final long FINE_SLOT_MILLIS = 1_000;
+    private static final int COARSE_SLOTS = 30;
+    private static final long COARSE_SLOT_MILLIS = 10_000;
+
+    /** Sums over one window; calls, 429s and total queue delay. */
+    record Totals(long calls, long throttled429, long sumQueueDelayMs) {
+    }
+
+    private final int[] fineCalls = new int[FINE_SLOTS];
+    private final int[] fineThrottled = new int[FINE_SLOTS];
+    private final long[] fineQueueDelayMs = new long[FINE_SLOTS];
+    private final int[] coarseCalls = new int[COARSE_SLOTS];
+    private final int[] coarseThrottled = new int[COARSE_SLOTS];
+    private final long[] coarseQueueDelayMs = new long[COARSE_SLOTS];
+    private long fineSlot;
+    private long coarseSlot;
+
+    void add(long nowMillis, long calls, long throttled429, long sumQueueDelayMs) {
+        advance(nowMillis);
+        int fine = (int) (fineSlot % FINE_SLOTS);
+        fineCalls[fine] += (int) calls;
+        fineThrottled[fine] += (int) throttled429;
+        fineQueueDelayMs[fine] += sumQueueDelayMs;
+        int coarse = (int) (coarseSlot % COARSE_SLOTS);
+        coarseCalls[coarse] += (int) calls;
+        coarseThrottled[coarse] += (int) throttled429;
+        coarseQueueDelayMs[coarse] += sumQueueDelayMs;
+    }
+
+    /** Sums the newest slots covering the window, the current (partial) slot included. */
+    Totals totals(MetricsWindow window, long nowMillis) {
+        advance(nowMillis);
+        return switch (window) {
+            case LAST_1S -> sum(fineCalls, fineThrottled, fineQueueDelayMs, fineSlot, 1);
+            case LAST_10S -> sum(fineCalls, fineThrottled, fineQueueDelayMs, fineSlot, FINE_SLOTS);
+            case LAST_1M -> sum(coarseCalls, coarseThrottled, coarseQueueDelayMs, coarseSlot, 6);
+            case LAST_5M -> sum(coarseCalls, coarseThrottled, coarseQueueDelayMs, coarseSlot, COARSE_SLOTS);
+            case LIFETIME -> throw new IllegalArgumentException("lifetime totals are not windowed");
+        };
+    }
+
+    /** Slots are keyed by absolute time, so a restored window simply rolls past whatever went stale. */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(fineSlot);
+        out.writeLong(coarseSlot);
+        writeSlots(out, fineCalls, fineThrottled, fineQueueDelayMs);
+        writeSlots(out, coarseCalls, coarseThrottled, coarseQueueDelayMs);
+    }
+
+    void readFrom(DataInput in) throws IOException {
+        fineSlot = in.readLong();
+        coarseSlot = in.readLong();
+        readSlots(in, fineCalls, fineThrottled, fineQueueDelayMs);
+        readSlots(in, coarseCalls, coarseThrottled, coarseQueueDelayMs);
+    }
+
+    private static void writeSlots(DataOutput out, int[] calls, int[] throttled, long[] queueDelayMs)
+        throws IOException {
+        for (int i = 0; i < calls.length; i++) {
+            out.writeInt(calls[i]);
+            out.writeInt(throttled[i]);
+            out.writeLong(queueDelayMs[i]);
+        }
+    }
+
+    private static void readSlots(DataInput in, int[] calls, int[] throttled, long[] queueDelayMs)
+        throws IOException {
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = in.readInt();
+            throttled[i] = in.readInt();
+            queueDelayMs[i] = in.readLong();
+        }
+    }
+
+    private void advance(long nowMillis) {
+        fineSlot = roll(fineCalls, fineThrottled, fineQueueDelayMs, fineSlot, nowMillis / FINE_SLOT_MILLIS);
+        coarseSlot = roll(coarseCalls, coarseThrottled, coarseQueueDelayMs, coarseSlot, nowMillis / COARSE_SLOT_MILLIS);
+    }
+
+    private static long roll(int[] calls, int[] throttled, long[] queueDelayMs, long currentSlot, long targetSlot) {
+        if (targetSlot <= currentSlot) {
+            return currentSlot;
+        }
+        long clearFrom = Math.max(currentSlot + 1, targetSlot - calls.length + 1);
+        for (long slot = clearFrom; slot <= targetSlot; slot++) {
+            int index = (int) (slot % calls.length);
+            calls[index] = 0;
+            throttled[index] = 0;
+            queueDelayMs[index] = 0;
+        }
+        return targetSlot;
+    }
+
+    private static Totals sum(int[] calls, int[] throttled, long[] queueDelayMs, long newestSlot, int slots) {
+        long callSum = 0;
+        long throttledSum = 0;
+        long queueDelaySum = 0;
+        for (int i = 0; i < slots; i++) {
+            int index = (int) ((newestSlot - i) % calls.length);
+            callSum += calls[index];
+            throttledSum += throttled[index];
+            queueDelaySum += queueDelayMs[index];
+        }
+        return new Totals(callSum, throttledSum, queueDelaySum);
+    }
+}
@@ -0,0 +1,108 @@
+package cluster.java.cafe24;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Weighted space-saving heavy-hitter sketch: at most {@code capacity} malls, kept in an indexed
+ * min-heap so an update is O(log capacity). An unseen mall replaces the current minimum and
+ * inherits its count, so a mall whose real weight exceeds total/capacity is always retained.
+ * Not thread-safe; owned by {@link Cafe24MetricsSingletonActor}.
+ */
+final class Cafe24TopMallsSketch {
+
+    private final String[] malls;
+    private final long[] counts;
+    private final Map<String, Integer> slotByMall;
+    private int size;
+
+    Cafe24TopMallsSketch(int capacity) {
+        this.malls = new String[capacity];
+        this.counts = new long[capacity];
+        this.slotByMall = new HashMap<>(capacity * 2);
+    }
+
+    int capacity() {
+        return malls.length;
+    }
+
+    void add(String mallId, long weight) {
+        if (weight <= 0) {
+            return;
+        }
+        Integer slot = slotByMall.get(mallId);
+        if (slot != null) {
+            counts[slot] += weight;
+            siftDown(slot);
+        } else if (size < malls.length) {
+            malls[size] = mallId;
+            counts[size] = weight;
+            slotByMall.put(mallId, size);
+            siftUp(size++);
+        } else {
+            slotByMall.remove(malls[0]);
+            malls[0] = mallId;
+            counts[0] += weight;
+            slotByMall.put(mallId, 0);
+            siftDown(0);
+        }
+    }
+
+    /** Halves every count so the sketch follows recent traffic; halving keeps heap order intact. */
+    void halve() {
+        for (int i = 0; i < size; i++) {
+            counts[i] >>>= 1;
+        }
+    }
+
+    List<String> candidates() {
+        List<String> candidates = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            candidates.add(malls[i]);
+        }
+        return candidates;
+    }
+
+    private void siftUp(int slot) {
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (counts[parent] <= counts[slot]) {
+                return;
+            }
+            swap(slot, parent);
+            slot = parent;
+        }
+    }
+
+    private void siftDown(int slot) {
+        while (true) {
+            int smallest = slot;
+            int left = slot * 2 + 1;
+            int right = left + 1;
+            if (left < size && counts[left] < counts[smallest]) {
+                smallest = left;
+            }
+            if (right < size && counts[right] < counts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == slot) {
+                return;
+            }
+            swap(slot, smallest);
+            slot = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String mall = malls[a];
+        long count = counts[a];
+        malls[a] = malls[b];
+        counts[a] = counts[b];
+        malls[b] = mall;
+        counts[b] = count;
+        slotByMall.put(malls[a], a);
+        slotByMall.put(malls[b], b);
+    }
+}
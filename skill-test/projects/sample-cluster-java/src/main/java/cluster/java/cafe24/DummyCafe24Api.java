@@ -4,58 +4,85 @@ import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-
-public final class DummyCafe24Api implements AutoCloseable {
-
-    public record ApiCallResult(
-        int statusCode,
-        String body,
-        int bucketUsed,
-        int bucketMax,
-        int callRemainSeconds
-    ) {
-    }
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the Cafe24 API with a per-mall leaky bucket.
+ *
+ * The bucket is GCRA-style: each mall stores only the time its bucket will be empty again
+ * (nanoTime), and a call computes the continuous leak on access with one CAS, so there is no
+ * background sweep and the per-call cost does not depend on the number of malls.
+ * Drained buckets are pruned whenever the map has doubled since the previous prune.
+ */
+public final class DummyCafe24Api implements Cafe24Client {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final int MIN_PRUNE_THRESHOLD = 1024;
 
     private final int bucketCapacity;
-    private final int leakRatePerSecond;
-    private final Map<String, AtomicInteger> bucketByMall = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService leakScheduler =
-        Executors.newSingleThreadScheduledExecutor(r -> {
-            Thread t = new Thread(r, "java-cafe24-leak");
-            t.setDaemon(true);
-            return t;
-        });
+    private final long leakIntervalNanos;
+    private final long capacityNanos;
+    private final Map<String, AtomicLong> drainedAtByMall = new ConcurrentHashMap<>();
+    private final AtomicLong pruneThreshold = new AtomicLong(MIN_PRUNE_THRESHOLD);
 
     public DummyCafe24Api(int bucketCapacity, int leakRatePerSecond) {
         this.bucketCapacity = bucketCapacity;
-        this.leakRatePerSecond = leakRatePerSecond;
-
-        leakScheduler.scheduleAtFixedRate(() -> bucketByMall.values().forEach(level ->
-                level.updateAndGet(current -> Math.max(0, current - leakRatePerSecond))),
-            1, 1, TimeUnit.SECONDS);
+        this.leakIntervalNanos = Math.max(1, NANOS_PER_SECOND / leakRatePerSecond);
+        this.capacityNanos = bucketCapacity * leakIntervalNanos;
     }
 
+    @Override
     public CompletionStage<ApiCallResult> call(String mallId, String word) {
-        int level = bucketByMall.computeIfAbsent(mallId, k -> new AtomicInteger()).incrementAndGet();
-        if (level > bucketCapacity) {
-            bucketByMall.get(mallId).decrementAndGet();
-            int over = level - bucketCapacity;
-            int remain = (int) Math.ceil((double) over / leakRatePerSecond) + 1;
-            return CompletableFuture.completedFuture(
-                new ApiCallResult(429, "Too Many Requests", level, bucketCapacity, remain));
+        long now = System.nanoTime();
+        AtomicLong drainedAt = bucketFor(mallId, now);
+        while (true) {
+            long current = drainedAt.get();
+            long next = Math.max(current, now) + leakIntervalNanos;
+            long backlogNanos = next - now;
+            int level = (int) ((backlogNanos + leakIntervalNanos - 1) / leakIntervalNanos);
+            if (backlogNanos > capacityNanos) {
+                long waitNanos = backlogNanos - capacityNanos;
+                int remain = (int) Math.max(1, (waitNanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND);
+                return CompletableFuture.completedFuture(
+                    new ApiCallResult(429, "Too Many Requests", level, bucketCapacity, remain));
+            }
+            if (drainedAt.compareAndSet(current, next)) {
+                String body = "hello".equals(word) ? "world" : word;
+                return CompletableFuture.completedFuture(
+                    new ApiCallResult(200, body, level, bucketCapacity, 0));
+            }
         }
+    }
 
-        String body = "hello".equals(word) ? "world" : word;
-        return CompletableFuture.completedFuture(
-            new ApiCallResult(200, body, level, bucketCapacity, 0));
+    private AtomicLong bucketFor(String mallId, long now) {
+        AtomicLong drainedAt = drainedAtByMall.get(mallId);
+        if (drainedAt != null) {
+            return drainedAt;
+        }
+        AtomicLong created = new AtomicLong(now);
+        drainedAt = drainedAtByMall.putIfAbsent(mallId, created);
+        if (drainedAt != null) {
+            return drainedAt;
+        }
+        pruneIfGrown(now);
+        return created;
+    }
+
+    /**
+     * Amortized O(1) per new mall. A call racing with the removal of its drained bucket may be
+     * admitted once without being counted, which only errs on the side of an emptier bucket.
+     */
+    private void pruneIfGrown(long now) {
+        long threshold = pruneThreshold.get();
+        if (drainedAtByMall.size() <= threshold || !pruneThreshold.compareAndSet(threshold, Long.MAX_VALUE)) {
+            return;
+        }
+        drainedAtByMall.values().removeIf(drainedAt -> drainedAt.get() - now <= 0);
+        pruneThreshold.set(Math.max(MIN_PRUNE_THRESHOLD, 2L * drainedAtByMall.size()));
     }
 
     @Override
     public void close() {
-        leakScheduler.shutdownNow();
+        // no background resources
     }
 }
@@ -0,0 +1,90 @@
+package cluster.java.cafe24;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Non-blocking Cafe24 client on the JDK {@link HttpClient}: one pooled client per node, HTTP/2 when
+ * the server offers it (many concurrent calls multiplexed per connection), HTTP/1.1 otherwise.
+ *
+ * Calls {@code GET {baseUrl}/api/v2/malls/{mallId}/echo?word={word}}. The bucket state comes from
+ * {@code X-Api-Call-Limit: used/max} and the advised wait from {@code Retry-After} (seconds).
+ * Timeouts map to 504 and other transport failures to 502, so the caller's stream keeps running.
+ */
+public final class HttpCafe24Client implements Cafe24Client {
+
+    static final String CALL_LIMIT_HEADER = "X-Api-Call-Limit";
+    static final String RETRY_AFTER_HEADER = "Retry-After";
+
+    private final HttpClient httpClient;
+    private final String baseUrl;
+    private final String accessToken;
+    private final Duration requestTimeout;
+
+    /** accessToken may be null; when set it is sent as a Bearer token. */
+    public HttpCafe24Client(String baseUrl, String accessToken, Duration connectTimeout, Duration requestTimeout) {
+        this.httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(connectTimeout)
+            .build();
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.accessToken = accessToken;
+        this.requestTimeout = requestTimeout;
+    }
+
+    @Override
+    public CompletionStage<ApiCallResult> call(String mallId, String word) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl
+                + "/api/v2/malls/" + URLEncoder.encode(mallId, StandardCharsets.UTF_8)
+                + "/echo?word=" + URLEncoder.encode(word, StandardCharsets.UTF_8)))
+            .timeout(requestTimeout)
+            .GET();
+        if (accessToken != null) {
+            request.header("Authorization", "Bearer " + accessToken);
+        }
+        return httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+            .handle((response, failure) -> failure == null ? toResult(response) : toFailureResult(failure));
+    }
+
+    static ApiCallResult toResult(HttpResponse<String> response) {
+        String callLimit = response.headers().firstValue(CALL_LIMIT_HEADER).orElse("");
+        int slash = callLimit.indexOf('/');
+        int bucketUsed = slash > 0 ? parseIntOr(callLimit.substring(0, slash), 0) : 0;
+        int bucketMax = slash > 0 ? parseIntOr(callLimit.substring(slash + 1), 0) : 0;
+        int defaultRemain = response.statusCode() == 429 ? 1 : 0;
+        int callRemainSeconds = response.headers().firstValue(RETRY_AFTER_HEADER)
+            .map(value -> parseIntOr(value, defaultRemain))
+            .orElse(defaultRemain);
+        return new ApiCallResult(response.statusCode(), response.body(), bucketUsed, bucketMax, callRemainSeconds);
+    }
+
+    private static ApiCallResult toFailureResult(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+            ? failure.getCause()
+            : failure;
+        return cause instanceof HttpTimeoutException
+            ? new ApiCallResult(504, "Gateway Timeout", 0, 0, 0)
+            : new ApiCallResult(502, "Bad Gateway: " + cause.getClass().getSimpleName(), 0, 0, 0);
+    }
+
+    private static int parseIntOr(String value, int fallback) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    @Override
+    public void close() {
+        httpClient.shutdownNow();
+    }
+}
@@ -0,0 +1,72 @@
+package cluster.java.cafe24;
+
+import akka.actor.ActorRef;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * mallId -> live MallApiCallerActor lookup owned by {@link Cafe24ApiManagerActor}.
+ * Not thread-safe; only touched from the manager's receive.
+ *
+ * The hit path ({@link #get}) is a single access-ordered hash lookup: no regex, no Scala Option,
+ * no allocation. Child names are sanitized once per incarnation when the caller is created.
+ */
+final class MallCallerRegistry {
+
+    // access-ordered, so the first entry is always the least recently used mall
+    private final LinkedHashMap<String, ActorRef> callersByMall = new LinkedHashMap<>(256, 0.75f, true);
+    // every caller not yet Terminated, including retired ones still draining
+    private final Map<ActorRef, String> mallsByCaller = new HashMap<>();
+
+    ActorRef get(String mallId) {
+        return callersByMall.get(mallId);
+    }
+
+    void put(String mallId, ActorRef caller) {
+        callersByMall.put(mallId, caller);
+        mallsByCaller.put(caller, mallId);
+    }
+
+    int size() {
+        return callersByMall.size();
+    }
+
+    /** Stops routing to the caller if it still serves the mall; it stays tracked until Terminated. */
+    boolean retire(String mallId, ActorRef caller) {
+        return callersByMall.remove(mallId, caller);
+    }
+
+    /** Retires and returns the least recently used caller when more than maxLive are routed, else null. */
+    ActorRef retireEldestOver(int maxLive) {
+        if (maxLive <= 0 || callersByMall.size() <= maxLive) {
+            return null;
+        }
+        Iterator<Map.Entry<String, ActorRef>> eldest = callersByMall.entrySet().iterator();
+        ActorRef caller = eldest.next().getValue();
+        eldest.remove();
+        return caller;
+    }
+
+    /** Forgets a stopped caller, also unrouting it if it stopped without being retired. */
+    void terminated(ActorRef caller) {
+        String mallId = mallsByCaller.remove(caller);
+        if (mallId != null) {
+            callersByMall.remove(mallId, caller);
+        }
+    }
+
+    static String childName(String mallId, long sequence) {
+        StringBuilder name = new StringBuilder(mallId.length() + 26).append("mall-");
+        for (int i = 0; i < mallId.length(); i++) {
+            char c = mallId.charAt(i);
+            boolean allowed = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_' || c == '-';
+            name.append(allowed ? c : '_');
+        }
+        // The sequence suffix keeps names unique while a retired incarnation of the same mall is still draining.
+        return name.append('-').append(sequence).toString();
+    }
+}
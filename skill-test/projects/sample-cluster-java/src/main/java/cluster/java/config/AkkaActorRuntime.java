@@ -1,24 +1,42 @@
 package cluster.java.config;
 
+import akka.Done;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.actor.CoordinatedShutdown;
+import akka.actor.Props;
 import akka.cluster.singleton.ClusterSingletonManager;
 import akka.cluster.singleton.ClusterSingletonManagerSettings;
 import akka.cluster.singleton.ClusterSingletonProxy;
 import akka.cluster.singleton.ClusterSingletonProxySettings;
+import akka.event.Logging;
+import akka.pattern.Patterns;
 import cluster.java.ClusterInfoActor;
 import cluster.java.ClusterListenerActor;
 import cluster.java.KafkaStreamSingletonActor;
 import cluster.java.cafe24.Cafe24ApiManagerActor;
+import cluster.java.cafe24.Cafe24CallerSettings;
+import cluster.java.cafe24.Cafe24Client;
+import cluster.java.cafe24.Cafe24GlobalBudget;
+import cluster.java.cafe24.Cafe24KafkaBridge;
 import cluster.java.cafe24.Cafe24MetricsSingletonActor;
+import cluster.java.cafe24.Cafe24RetryPolicy;
 import cluster.java.cafe24.DummyCafe24Api;
+import cluster.java.cafe24.HttpCafe24Client;
 import cluster.java.infra.SpringExtensionProvider;
+import cluster.java.kafka.KafkaBulkPublisher;
+import cluster.java.kafka.KafkaConsumerPipeline;
+import cluster.java.kafka.KafkaConsumerPipelineActor;
+import cluster.java.kafka.KafkaConsumerSettings;
+import cluster.java.kafka.KafkaPublishSettings;
+import cluster.java.kafka.KafkaRecordProcessor;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import jakarta.annotation.PreDestroy;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
+import java.nio.file.Path;
 import java.time.Duration;
 
 @Component
@@ -29,8 +47,12 @@ public class AkkaActorRuntime {
     private final ActorRef clusterInfoActor;
     private final ActorRef kafkaSingletonProxy;
     private final ActorRef cafe24ApiManager;
+    private final ActorRef cafe24MallShardRegion;
     private final ActorRef cafe24MetricsProxy;
-    private final DummyCafe24Api dummyCafe24Api;
+    private final Cafe24Client cafe24Client;
+    private final KafkaBulkPublisher kafkaBulkPublisher;
+    private final KafkaBulkPublisher kafkaDeadLetterPublisher;
+    private final ActorRef kafkaConsumerProxy;
 
     public AkkaActorRuntime(ApplicationContext applicationContext) {
         StringBuilder overrides = new StringBuilder();
@@ -52,9 +74,66 @@ public class AkkaActorRuntime {
             "KAFKA_BOOTSTRAP_SERVERS", "kafka.default.svc.cluster.local:9092");
         String kafkaTopic = System.getenv().getOrDefault("KAFKA_TOPIC", "cluster-java-events");
         String kafkaGroupIdPrefix = System.getenv().getOrDefault("KAFKA_GROUP_ID_PREFIX", "cluster-java-group");
+        String kafkaPublishTopic = System.getenv().getOrDefault("KAFKA_PUBLISH_TOPIC", kafkaTopic);
+        int kafkaPublishLingerMs = Integer.parseInt(System.getenv().getOrDefault("KAFKA_PUBLISH_LINGER_MS", "20"));
+        int kafkaPublishBatchSize =
+            Integer.parseInt(System.getenv().getOrDefault("KAFKA_PUBLISH_BATCH_SIZE", "262144"));
+        String kafkaPublishCompression = System.getenv().getOrDefault("KAFKA_PUBLISH_COMPRESSION", "lz4");
+        String kafkaPublishAcks = System.getenv().getOrDefault("KAFKA_PUBLISH_ACKS", "all");
+        int kafkaPublishMaxBatchRecords =
+            Integer.parseInt(System.getenv().getOrDefault("KAFKA_PUBLISH_MAX_BATCH_RECORDS", "1000"));
+        boolean kafkaConsumerEnabled =
+            Boolean.parseBoolean(System.getenv().getOrDefault("KAFKA_CONSUMER_ENABLED", "false"));
+        boolean kafkaConsumerPartitioned =
+            "partitioned".equalsIgnoreCase(System.getenv().getOrDefault("KAFKA_CONSUMER_MODE", "singleton"));
+        String kafkaConsumerProcessor = System.getenv().getOrDefault("KAFKA_CONSUMER_PROCESSOR", "log");
+        int kafkaConsumerCafe24MaxRetries =
+            Integer.parseInt(System.getenv().getOrDefault("KAFKA_CONSUMER_CAFE24_MAX_RETRIES", "10"));
+        long kafkaConsumerCafe24AskTimeoutMs =
+            Long.parseLong(System.getenv().getOrDefault("KAFKA_CONSUMER_CAFE24_ASK_TIMEOUT_MS", "30000"));
+        String kafkaConsumerDeadLetterTopic = System.getenv().getOrDefault("KAFKA_CONSUMER_DEAD_LETTER_TOPIC", "");
+        boolean kafkaConsumerKeyOrdered =
+            Boolean.parseBoolean(System.getenv().getOrDefault("KAFKA_CONSUMER_KEY_ORDERED", "true"));
+        int kafkaConsumerMaxPartitions =
+            Integer.parseInt(System.getenv().getOrDefault("KAFKA_CONSUMER_MAX_PARTITIONS", "64"));
+        String kafkaConsumerTopic = System.getenv().getOrDefault("KAFKA_CONSUMER_TOPIC", kafkaTopic);
+        String kafkaConsumerGroupId =
+            System.getenv().getOrDefault("KAFKA_CONSUMER_GROUP_ID", kafkaGroupIdPrefix + "-pipeline");
+        int kafkaConsumerParallelism =
+            Integer.parseInt(System.getenv().getOrDefault("KAFKA_CONSUMER_PARALLELISM", "8"));
+        long kafkaConsumerCommitMaxBatch =
+            Long.parseLong(System.getenv().getOrDefault("KAFKA_CONSUMER_COMMIT_MAX_BATCH", "1000"));
+        int kafkaConsumerCommitMaxIntervalMs =
+            Integer.parseInt(System.getenv().getOrDefault("KAFKA_CONSUMER_COMMIT_MAX_INTERVAL_MS", "1000"));
         int cafe24BucketCapacity = Integer.parseInt(System.getenv().getOrDefault("CAFE24_BUCKET_CAPACITY", "10"));
         int cafe24LeakRate = Integer.parseInt(System.getenv().getOrDefault("CAFE24_LEAK_RATE_PER_SECOND", "2"));
         int cafe24PerMallRps = Integer.parseInt(System.getenv().getOrDefault("CAFE24_PER_MALL_MAX_RPS", "2"));
+        String cafe24ClientType = System.getenv().getOrDefault("CAFE24_CLIENT", "dummy");
+        String cafe24BaseUrl = System.getenv().getOrDefault("CAFE24_BASE_URL", "http://localhost:8081");
+        int cafe24HttpTimeoutMs = Integer.parseInt(System.getenv().getOrDefault("CAFE24_HTTP_TIMEOUT_MS", "10000"));
+        int cafe24PerMallParallelism =
+            Integer.parseInt(System.getenv().getOrDefault("CAFE24_PER_MALL_PARALLELISM", "1"));
+        boolean cafe24OrderedResponses =
+            Boolean.parseBoolean(System.getenv().getOrDefault("CAFE24_ORDERED_RESPONSES", "true"));
+        int cafe24MaxRetries = Integer.parseInt(System.getenv().getOrDefault("CAFE24_MAX_RETRIES", "3"));
+        int cafe24LaneCapacity = Integer.parseInt(System.getenv().getOrDefault("CAFE24_LANE_CAPACITY", "256"));
+        boolean cafe24StrictPriority =
+            Boolean.parseBoolean(System.getenv().getOrDefault("CAFE24_STRICT_PRIORITY", "false"));
+        int cafe24GlobalMaxConcurrency =
+            Integer.parseInt(System.getenv().getOrDefault("CAFE24_GLOBAL_MAX_CONCURRENCY", "0"));
+        int cafe24GlobalMaxRps = Integer.parseInt(System.getenv().getOrDefault("CAFE24_GLOBAL_MAX_RPS", "0"));
+        int cafe24ResponseCacheTtlMs =
+            Integer.parseInt(System.getenv().getOrDefault("CAFE24_RESPONSE_CACHE_TTL_MS", "0"));
+        long cafe24ResponseCacheMaxWeight =
+            Long.parseLong(System.getenv().getOrDefault("CAFE24_RESPONSE_CACHE_MAX_WEIGHT", "65536"));
+        boolean cafe24SingleFlight =
+            Boolean.parseBoolean(System.getenv().getOrDefault("CAFE24_SINGLE_FLIGHT", "false"));
+        int cafe24MaxLiveMalls = Integer.parseInt(System.getenv().getOrDefault("CAFE24_MAX_LIVE_MALLS", "10000"));
+        boolean cafe24ShardingEnabled =
+            Boolean.parseBoolean(System.getenv().getOrDefault("CAFE24_SHARDING_ENABLED", "false"));
+        String cafe24MetricsSnapshotDir = System.getenv("CAFE24_METRICS_SNAPSHOT_DIR");
+        int cafe24MetricsSnapshotIntervalSeconds =
+            Integer.parseInt(System.getenv().getOrDefault("CAFE24_METRICS_SNAPSHOT_INTERVAL_SECONDS", "5"));
 
         actorSystem.actorOf(
             ClusterSingletonManager.props(
@@ -68,11 +147,29 @@ public class AkkaActorRuntime {
             "kafkaStreamSingletonManager");
         actorSystem.actorOf(
             ClusterSingletonManager.props(
-                Cafe24MetricsSingletonActor.props(),
+                Cafe24MetricsSingletonActor.props(
+                    Duration.ofMinutes(1),
+                    cafe24MetricsSnapshotDir == null || cafe24MetricsSnapshotDir.isBlank()
+                        ? null
+                        : Path.of(cafe24MetricsSnapshotDir),
+                    Duration.ofSeconds(cafe24MetricsSnapshotIntervalSeconds)),
                 Cafe24MetricsSingletonActor.Stop.INSTANCE,
                 ClusterSingletonManagerSettings.create(actorSystem)),
             "cafe24MetricsSingletonManager");
 
+        // Node-local, not a singleton: every node publishes with its own producer.
+        this.kafkaBulkPublisher = KafkaBulkPublisher.create(
+            actorSystem,
+            kafkaBootstrapServers,
+            kafkaPublishTopic,
+            KafkaPublishSettings.builder()
+                .lingerMs(kafkaPublishLingerMs)
+                .batchSizeBytes(kafkaPublishBatchSize)
+                .compressionType(kafkaPublishCompression)
+                .acks(kafkaPublishAcks)
+                .maxBatchRecords(kafkaPublishMaxBatchRecords)
+                .build());
+
         this.kafkaSingletonProxy = actorSystem.actorOf(
             ClusterSingletonProxy.props(
                 "/user/kafkaStreamSingletonManager",
@@ -84,11 +181,95 @@ public class AkkaActorRuntime {
                 ClusterSingletonProxySettings.create(actorSystem)),
             "cafe24MetricsSingletonProxy");
 
-        this.dummyCafe24Api = new DummyCafe24Api(cafe24BucketCapacity, cafe24LeakRate);
+        // One idle timeout for both modes: CAFE24_MALL_IDLE_TIMEOUT feeds the sharding passivation setting.
+        Duration cafe24MallIdleTimeout = config.getDuration(
+            "akka.cluster.sharding.passivation.default-idle-strategy.idle-entity.timeout");
+        Cafe24CallerSettings cafe24CallerSettings = Cafe24CallerSettings.builder(cafe24PerMallRps)
+            .idleTimeout(cafe24MallIdleTimeout)
+            .maxLiveMalls(cafe24MaxLiveMalls)
+            .perMallParallelism(cafe24PerMallParallelism)
+            .orderedResponses(cafe24OrderedResponses)
+            .retryPolicy(Cafe24RetryPolicy.defaults().withMaxRetries(cafe24MaxRetries))
+            .laneCapacity(cafe24LaneCapacity)
+            .strictPriority(cafe24StrictPriority)
+            .globalMaxConcurrent(cafe24GlobalMaxConcurrency)
+            .globalMaxRequestsPerSecond(cafe24GlobalMaxRps)
+            .responseCacheTtl(Duration.ofMillis(cafe24ResponseCacheTtlMs))
+            .responseCacheMaxWeight(cafe24ResponseCacheMaxWeight)
+            .singleFlight(cafe24SingleFlight)
+            .build();
+        // One budget per node, shared by the local callers and the sharded entities hosted here.
+        Cafe24GlobalBudget cafe24GlobalBudget = Cafe24GlobalBudget.forSettings(actorSystem, cafe24CallerSettings);
+
+        this.cafe24Client = "http".equalsIgnoreCase(cafe24ClientType)
+            ? new HttpCafe24Client(
+                cafe24BaseUrl,
+                System.getenv("CAFE24_ACCESS_TOKEN"),
+                Duration.ofSeconds(5),
+                Duration.ofMillis(cafe24HttpTimeoutMs))
+            : new DummyCafe24Api(cafe24BucketCapacity, cafe24LeakRate);
+        this.cafe24MallShardRegion = cafe24ShardingEnabled
+            ? Cafe24ApiManagerActor.startMallShardRegion(
+                actorSystem, cafe24CallerSettings, cafe24Client, cafe24MetricsProxy, cafe24GlobalBudget)
+            : null;
         this.cafe24ApiManager = actorSystem.actorOf(
-            Cafe24ApiManagerActor.props(cafe24PerMallRps, dummyCafe24Api, cafe24MetricsProxy),
+            Cafe24ApiManagerActor.props(
+                cafe24CallerSettings, cafe24Client, cafe24MetricsProxy, cafe24MallShardRegion, cafe24GlobalBudget),
             "cafe24ApiManager");
 
+        if (kafkaConsumerEnabled) {
+            KafkaConsumerSettings kafkaConsumerSettings = KafkaConsumerSettings
+                .builder(kafkaConsumerTopic, kafkaConsumerGroupId)
+                .parallelism(kafkaConsumerParallelism)
+                .commitMaxBatch(kafkaConsumerCommitMaxBatch)
+                .commitMaxInterval(Duration.ofMillis(kafkaConsumerCommitMaxIntervalMs))
+                .partitioned(kafkaConsumerPartitioned)
+                .maxPartitions(kafkaConsumerMaxPartitions)
+                .keyOrdered(kafkaConsumerKeyOrdered)
+                .build();
+            boolean cafe24Processor = "cafe24".equalsIgnoreCase(kafkaConsumerProcessor);
+            this.kafkaDeadLetterPublisher = cafe24Processor && !kafkaConsumerDeadLetterTopic.isBlank()
+                ? KafkaBulkPublisher.create(
+                    actorSystem, kafkaBootstrapServers, kafkaConsumerDeadLetterTopic, KafkaPublishSettings.defaults())
+                : null;
+            // "cafe24" feeds the consumed mall jobs into this node's throttled Cafe24 call path.
+            KafkaRecordProcessor kafkaRecordProcessor = cafe24Processor
+                ? new Cafe24KafkaBridge(
+                    actorSystem,
+                    cafe24CallRouter(),
+                    Duration.ofMillis(kafkaConsumerCafe24AskTimeoutMs),
+                    Cafe24RetryPolicy.defaults().withMaxRetries(kafkaConsumerCafe24MaxRetries),
+                    kafkaDeadLetterPublisher)
+                : KafkaRecordProcessor.logging(Logging.getLogger(actorSystem, "KafkaConsumerPipeline"));
+            Props kafkaConsumerProps = KafkaConsumerPipelineActor.props(() -> KafkaConsumerPipeline.create(
+                actorSystem, kafkaBootstrapServers, kafkaConsumerSettings, kafkaRecordProcessor));
+            if (kafkaConsumerPartitioned) {
+                // Every node joins the group; Kafka spreads the partitions over the nodes.
+                this.kafkaConsumerProxy = actorSystem.actorOf(kafkaConsumerProps, "kafkaConsumerPipeline");
+                CoordinatedShutdown.get(actorSystem).addTask(
+                    CoordinatedShutdown.PhaseServiceRequestsDone(),
+                    "drain-kafka-consumer",
+                    () -> Patterns.gracefulStop(
+                            kafkaConsumerProxy, Duration.ofSeconds(30), KafkaConsumerPipelineActor.Stop.INSTANCE)
+                        .thenApply(stopped -> Done.getInstance()));
+            } else {
+                actorSystem.actorOf(
+                    ClusterSingletonManager.props(
+                        kafkaConsumerProps,
+                        KafkaConsumerPipelineActor.Stop.INSTANCE,
+                        ClusterSingletonManagerSettings.create(actorSystem)),
+                    "kafkaConsumerPipelineManager");
+                this.kafkaConsumerProxy = actorSystem.actorOf(
+                    ClusterSingletonProxy.props(
+                        "/user/kafkaConsumerPipelineManager",
+                        ClusterSingletonProxySettings.create(actorSystem)),
+                    "kafkaConsumerPipelineProxy");
+            }
+        } else {
+            this.kafkaConsumerProxy = null;
+            this.kafkaDeadLetterPublisher = null;
+        }
+
         this.helloActor = actorSystem.actorOf(
             SpringExtensionProvider.getInstance().get(actorSystem).props("helloActorBean"),
             "helloActor");
@@ -114,17 +295,38 @@ public class AkkaActorRuntime {
         return kafkaSingletonProxy;
     }
 
+    public KafkaBulkPublisher kafkaBulkPublisher() {
+        return kafkaBulkPublisher;
+    }
+
+    /**
+     * The consumer pipeline: the singleton proxy, this node's own pipeline when partitioned, or null when
+     * KAFKA_CONSUMER_ENABLED is off.
+     */
+    public ActorRef kafkaConsumerProxy() {
+        return kafkaConsumerProxy;
+    }
+
     public ActorRef cafe24ApiManager() {
         return cafe24ApiManager;
     }
 
+    /** Where single Cafe24 calls are sent: the mall shard region in sharding mode, otherwise the local manager. */
+    public ActorRef cafe24CallRouter() {
+        return cafe24MallShardRegion != null ? cafe24MallShardRegion : cafe24ApiManager;
+    }
+
     public ActorRef cafe24MetricsProxy() {
         return cafe24MetricsProxy;
     }
 
     @PreDestroy
     public void shutdown() {
-        dummyCafe24Api.close();
+        cafe24Client.close();
+        kafkaBulkPublisher.close();
+        if (kafkaDeadLetterPublisher != null) {
+            kafkaDeadLetterPublisher.close();
+        }
         actorSystem.terminate();
     }
 }
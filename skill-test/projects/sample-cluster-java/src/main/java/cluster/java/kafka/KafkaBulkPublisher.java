@@ -0,0 +1,274 @@
+package cluster.java.kafka;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.japi.Pair;
+import akka.kafka.ProducerMessage;
+import akka.kafka.ProducerSettings;
+import akka.kafka.javadsl.Producer;
+import akka.stream.BoundedSourceQueue;
+import akka.stream.Materializer;
+import akka.stream.QueueOfferResult;
+import akka.stream.SystemMaterializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Node-local bulk publisher: one long-lived producer stream ({@code Source.queue} into
+ * {@code Producer.flexiFlow}) that every publish request feeds with batches of up to
+ * {@link KafkaPublishSettings#maxBatchRecords()} records. A batch is one multi-message envelope, so
+ * its records reach the Kafka producer together and are answered with their partition offsets once
+ * all of them are acknowledged; the producer itself groups records per partition by linger.ms and
+ * batch.size and compresses them.
+ *
+ * The stream is started by the first batch. A send failure fails the flexiFlow stage and with it
+ * every batch still in that stream; the next batch starts a fresh stream (and producer). Batches
+ * never fail their future, a failure is reported in their {@link BatchResult}.
+ */
+public final class KafkaBulkPublisher {
+
+    public record PublishRecord(String key, String value) implements Serializable {
+    }
+
+    public record PartitionOffsets(int partition, long firstOffset, long lastOffset, int records)
+        implements Serializable {
+    }
+
+    public record BatchResult(boolean success, int records, List<PartitionOffsets> partitions, String error)
+        implements Serializable {
+
+        static BatchResult failed(int records, String error) {
+            return new BatchResult(false, records, List.of(), error);
+        }
+    }
+
+    /**
+     * Batches are in input order and cover consecutive records: batch i holds the {@code records} records
+     * after those of batches 0..i-1, so a failed batch names exactly the records to resend. records counts
+     * the records read and published; error is empty unless reading the input stopped early, in which
+     * case the input from record index {@code records} on was not published.
+     */
+    public record PublishResult(
+        String topic,
+        int records,
+        int failedBatches,
+        List<BatchResult> batches,
+        String error
+    ) implements Serializable {
+    }
+
+    private record Running(
+        BoundedSourceQueue<ProducerMessage.Envelope<String, String, CompletableFuture<BatchResult>>> queue,
+        Set<CompletableFuture<BatchResult>> pending) {
+    }
+
+    private final String topic;
+    private final KafkaPublishSettings settings;
+    private final Materializer materializer;
+    private final Supplier<Flow<
+        ProducerMessage.Envelope<String, String, CompletableFuture<BatchResult>>,
+        ProducerMessage.Results<String, String, CompletableFuture<BatchResult>>,
+        NotUsed>> producerFlow;
+    private Running running;
+    private boolean closed;
+
+    public static KafkaBulkPublisher create(
+        ActorSystem system,
+        String bootstrapServers,
+        String topic,
+        KafkaPublishSettings settings) {
+
+        ProducerSettings<String, String> producerSettings =
+            ProducerSettings.create(system, new StringSerializer(), new StringSerializer())
+                .withBootstrapServers(bootstrapServers)
+                .withParallelism(settings.maxInFlightBatches())
+                .withProperty(ProducerConfig.LINGER_MS_CONFIG, String.valueOf(settings.lingerMs()))
+                .withProperty(ProducerConfig.BATCH_SIZE_CONFIG, String.valueOf(settings.batchSizeBytes()))
+                .withProperty(ProducerConfig.COMPRESSION_TYPE_CONFIG, settings.compressionType())
+                .withProperty(ProducerConfig.ACKS_CONFIG, settings.acks())
+                // the idempotent producer requires acks=all
+                .withProperty(
+                    ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG,
+                    String.valueOf("all".equals(settings.acks()) || "-1".equals(settings.acks())));
+        return new KafkaBulkPublisher(system, topic, settings, () -> Producer.flexiFlow(producerSettings));
+    }
+
+    /** producerFlow is materialized once per stream; tests pass a flow that fakes the acks. */
+    public KafkaBulkPublisher(
+        ActorSystem system,
+        String topic,
+        KafkaPublishSettings settings,
+        Supplier<Flow<
+            ProducerMessage.Envelope<String, String, CompletableFuture<BatchResult>>,
+            ProducerMessage.Results<String, String, CompletableFuture<BatchResult>>,
+            NotUsed>> producerFlow) {
+        this.topic = topic;
+        this.settings = settings;
+        this.materializer = SystemMaterializer.get(system).materializer();
+        this.producerFlow = producerFlow;
+    }
+
+    public String topic() {
+        return topic;
+    }
+
+    /**
+     * Reads the records in batches and queues each batch as soon as it is full, so a long iterator
+     * (a streamed request body) is published while it is still being read. An exception thrown by the
+     * iterator (a malformed record) stops reading: the records before it are still published, so the
+     * result tells exactly where the input was cut off, and the exception is reported in its error.
+     */
+    public CompletionStage<PublishResult> publish(Iterator<PublishRecord> records) {
+        List<CompletableFuture<BatchResult>> batches = new ArrayList<>();
+        List<PublishRecord> batch = new ArrayList<>();
+        int total = 0;
+        String error = "";
+        try {
+            while (records.hasNext()) {
+                batch.add(records.next());
+                total += 1;
+                if (batch.size() == settings.maxBatchRecords()) {
+                    batches.add(publishBatch(batch));
+                    batch = new ArrayList<>();
+                }
+            }
+        } catch (RuntimeException e) {
+            // iterators wrap their checked parse errors
+            error = "record " + total + ": " + describe(e.getCause() != null ? e.getCause() : e);
+        }
+        if (!batch.isEmpty()) {
+            batches.add(publishBatch(batch));
+        }
+
+        int recordCount = total;
+        String readError = error;
+        return CompletableFuture.allOf(batches.toArray(CompletableFuture[]::new))
+            .thenApply(ignored -> {
+                List<BatchResult> results = batches.stream().map(CompletableFuture::join).toList();
+                int failed = (int) results.stream().filter(result -> !result.success()).count();
+                return new PublishResult(topic, recordCount, failed, results, readError);
+            });
+    }
+
+    /** One envelope for the whole batch; never completes exceptionally. */
+    public CompletableFuture<BatchResult> publishBatch(List<PublishRecord> records) {
+        List<ProducerRecord<String, String>> producerRecords = new ArrayList<>(records.size());
+        for (PublishRecord record : records) {
+            producerRecords.add(new ProducerRecord<>(topic, record.key(), record.value()));
+        }
+
+        Running stream = ensureRunning();
+        if (stream == null) {
+            return CompletableFuture.completedFuture(BatchResult.failed(records.size(), "publisher closed"));
+        }
+        CompletableFuture<BatchResult> acked = new CompletableFuture<>();
+        // registered before the offer so a stream failure right after it still finds the batch
+        stream.pending().add(acked);
+        QueueOfferResult offered = stream.queue().offer(ProducerMessage.multi(producerRecords, acked));
+        if (offered != QueueOfferResult.enqueued()) {
+            stream.pending().remove(acked);
+            return CompletableFuture.completedFuture(BatchResult.failed(
+                records.size(),
+                offered == QueueOfferResult.dropped() ? "publish queue full" : "publisher stream stopped"));
+        }
+
+        return acked
+            .orTimeout(settings.batchTimeout().toMillis(), TimeUnit.MILLISECONDS)
+            .handle((result, ex) -> {
+                stream.pending().remove(acked);
+                return ex == null ? result : BatchResult.failed(records.size(), describe(ex));
+            });
+    }
+
+    /** Lets queued batches finish; the producer closes when the stream completes. */
+    public synchronized void close() {
+        closed = true;
+        if (running != null) {
+            running.queue().complete();
+            running = null;
+        }
+    }
+
+    private synchronized Running ensureRunning() {
+        if (closed) {
+            return null;
+        }
+        if (running != null) {
+            return running;
+        }
+
+        Pair<BoundedSourceQueue<ProducerMessage.Envelope<String, String, CompletableFuture<BatchResult>>>,
+            CompletionStage<Done>> materialized =
+            Source.<ProducerMessage.Envelope<String, String, CompletableFuture<BatchResult>>>queue(
+                    settings.queueCapacity())
+                .via(producerFlow.get())
+                .toMat(Sink.foreach(KafkaBulkPublisher::acknowledge), Keep.both())
+                .run(materializer);
+        Running started = new Running(materialized.first(), ConcurrentHashMap.newKeySet());
+        running = started;
+        materialized.second().whenComplete((done, ex) -> onStreamTerminated(started, ex));
+        return started;
+    }
+
+    private void onStreamTerminated(Running stream, Throwable failure) {
+        synchronized (this) {
+            if (running == stream) {
+                running = null;
+            }
+        }
+        Throwable cause = failure != null ? failure : new IllegalStateException("publisher stream stopped");
+        for (CompletableFuture<BatchResult> pending : stream.pending()) {
+            pending.completeExceptionally(cause);
+        }
+    }
+
+    private static void acknowledge(ProducerMessage.Results<String, String, CompletableFuture<BatchResult>> results) {
+        if (!(results instanceof ProducerMessage.MultiResult<String, String, CompletableFuture<BatchResult>> multi)) {
+            return;
+        }
+        Map<Integer, long[]> byPartition = new TreeMap<>();
+        int count = 0;
+        for (ProducerMessage.MultiResultPart<String, String> part : multi.getParts()) {
+            RecordMetadata metadata = part.metadata();
+            // {first, last, records}
+            long[] offsets = byPartition.computeIfAbsent(
+                metadata.partition(), partition -> new long[]{Long.MAX_VALUE, Long.MIN_VALUE, 0});
+            offsets[0] = Math.min(offsets[0], metadata.offset());
+            offsets[1] = Math.max(offsets[1], metadata.offset());
+            offsets[2] += 1;
+            count += 1;
+        }
+        List<PartitionOffsets> partitions = new ArrayList<>(byPartition.size());
+        byPartition.forEach((partition, offsets) ->
+            partitions.add(new PartitionOffsets(partition, offsets[0], offsets[1], (int) offsets[2])));
+        multi.passThrough().complete(new BatchResult(true, count, partitions, ""));
+    }
+
+    private static String describe(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+            ? failure.getCause()
+            : failure;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+}
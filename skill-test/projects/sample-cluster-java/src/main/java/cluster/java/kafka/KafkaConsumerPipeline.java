@@ -0,0 +1,368 @@
+package cluster.java.kafka;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.japi.Pair;
+import akka.kafka.CommitterSettings;
+import akka.kafka.ConsumerMessage;
+import akka.kafka.ConsumerSettings;
+import akka.kafka.Subscriptions;
+import akka.kafka.javadsl.Committer;
+import akka.kafka.javadsl.Consumer;
+import akka.stream.KillSwitches;
+import akka.stream.Materializer;
+import akka.stream.RestartSettings;
+import akka.stream.SystemMaterializer;
+import akka.stream.UniqueKillSwitch;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.RestartSource;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringDeserializer;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Continuously running at-least-once consumer: {@code Consumer.committableSource} -> the
+ * {@link KafkaRecordProcessor} with bounded parallelism (mapAsync, so offsets stay in order) ->
+ * offsets aggregated by {@code Committer.batchFlow} up to commitMaxBatch or commitMaxInterval ->
+ * {@code Committer.flow} committing each aggregated batch.
+ *
+ * Partitioned ({@link #partitioned}), {@code Consumer.committablePartitionedSource} gives every
+ * assigned partition its own processing sub-stream, merged again before the commit. Run on every node
+ * with the same group, the group spreads the partitions over the nodes and each node processes its
+ * partitions side by side. In both modes records with the same key are processed one after another
+ * in offset order (unless keyOrdered is off), while records of other keys overlap up to the parallelism.
+ *
+ * A failed record or commit fails the stream; it is restarted with backoff and the new consumer
+ * resumes from the last committed offset, so the records since then are processed again.
+ * {@link #drainAndShutdown()} stops fetching, lets in-flight records finish and commits them.
+ *
+ * Lag is the sum of the consumer client's records-lag per assigned partition and the processing rate
+ * is the number of records finished in the last second, both refreshed once a second.
+ */
+public final class KafkaConsumerPipeline {
+
+    /**
+     * @param activePartitions   partition sub-streams running on this node, 0 when not partitioned
+     * @param restarts           times the stream was restarted after a failure
+     * @param processedPerSecond records finished in the last full second
+     * @param commits            commit batches acknowledged by the broker
+     * @param committedRecords   records covered by those commits
+     * @param consumerLag        records behind the log end summed over the assigned partitions, -1 before the first fetch
+     */
+    public record ConsumerStats(
+        String topic,
+        String groupId,
+        boolean running,
+        boolean partitioned,
+        int activePartitions,
+        long processed,
+        long failed,
+        long restarts,
+        long processedPerSecond,
+        long commits,
+        long committedRecords,
+        double avgCommitLatencyMs,
+        long maxCommitLatencyMs,
+        long consumerLag
+    ) implements Serializable {
+    }
+
+    private final KafkaConsumerSettings settings;
+    private final ActorSystem system;
+    private final Materializer materializer;
+    private final KafkaRecordProcessor processor;
+    private final Supplier<Source<ConsumerMessage.CommittableMessage<String, String>, Consumer.Control>> source;
+    private final Supplier<Source<
+        Pair<TopicPartition, Source<ConsumerMessage.CommittableMessage<String, String>, NotUsed>>,
+        Consumer.Control>> partitionedSource;
+    private final Flow<ConsumerMessage.Committable, ConsumerMessage.Committable, NotUsed> batcher;
+    private final Flow<ConsumerMessage.Committable, Done, NotUsed> committer;
+
+    private final AtomicReference<Consumer.Control> control = new AtomicReference<>();
+    private final AtomicInteger materializations = new AtomicInteger();
+    private final AtomicInteger activePartitions = new AtomicInteger();
+    // commit start times, in commit order (the committer runs one batch at a time)
+    private final ConcurrentLinkedQueue<long[]> commitsInFlight = new ConcurrentLinkedQueue<>();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder committedRecords = new LongAdder();
+    private final LongAdder sumCommitLatencyMs = new LongAdder();
+    private final LongAccumulator maxCommitLatencyMs = new LongAccumulator(Math::max, 0);
+    private volatile long processedPerSecond;
+    private volatile long consumerLag = -1;
+    private long processedAtLastTick;
+    private UniqueKillSwitch killSwitch;
+    private CompletionStage<Done> done;
+    private Cancellable tick;
+
+    public static KafkaConsumerPipeline create(
+        ActorSystem system,
+        String bootstrapServers,
+        KafkaConsumerSettings settings,
+        KafkaRecordProcessor processor) {
+
+        ConsumerSettings<String, String> consumerSettings =
+            ConsumerSettings.create(system, new StringDeserializer(), new StringDeserializer())
+                .withBootstrapServers(bootstrapServers)
+                .withGroupId(settings.groupId())
+                .withProperty(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest")
+                .withProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        CommitterSettings committerSettings = CommitterSettings.create(system)
+            .withMaxBatch(settings.commitMaxBatch())
+            .withMaxInterval(settings.commitMaxInterval());
+        Flow<ConsumerMessage.Committable, ConsumerMessage.Committable, NotUsed> batcher =
+            Committer.<ConsumerMessage.Committable>batchFlow(committerSettings)
+                .map(ConsumerMessage.Committable.class::cast);
+        // already batched: each batch is committed on its own, one at a time
+        Flow<ConsumerMessage.Committable, Done, NotUsed> committer =
+            Committer.flow(committerSettings.withMaxBatch(1).withParallelism(1));
+        return settings.partitioned()
+            ? partitioned(
+                system,
+                settings,
+                processor,
+                () -> Consumer.committablePartitionedSource(consumerSettings, Subscriptions.topics(settings.topic())),
+                batcher,
+                committer)
+            : new KafkaConsumerPipeline(
+                system,
+                settings,
+                processor,
+                () -> Consumer.committableSource(consumerSettings, Subscriptions.topics(settings.topic())),
+                batcher,
+                committer);
+    }
+
+    /** As the constructor, with one sub-source per assigned partition. */
+    public static KafkaConsumerPipeline partitioned(
+        ActorSystem system,
+        KafkaConsumerSettings settings,
+        KafkaRecordProcessor processor,
+        Supplier<Source<
+            Pair<TopicPartition, Source<ConsumerMessage.CommittableMessage<String, String>, NotUsed>>,
+            Consumer.Control>> partitionedSource,
+        Flow<ConsumerMessage.Committable, ConsumerMessage.Committable, NotUsed> batcher,
+        Flow<ConsumerMessage.Committable, Done, NotUsed> committer) {
+        return new KafkaConsumerPipeline(system, settings, processor, null, partitionedSource, batcher, committer);
+    }
+
+    /**
+     * source is materialized once per (re)start; batcher aggregates offsets and committer commits
+     * each aggregate, emitting once per acknowledged commit. Tests pass fakes for all three.
+     */
+    public KafkaConsumerPipeline(
+        ActorSystem system,
+        KafkaConsumerSettings settings,
+        KafkaRecordProcessor processor,
+        Supplier<Source<ConsumerMessage.CommittableMessage<String, String>, Consumer.Control>> source,
+        Flow<ConsumerMessage.Committable, ConsumerMessage.Committable, NotUsed> batcher,
+        Flow<ConsumerMessage.Committable, Done, NotUsed> committer) {
+        this(system, settings, processor, source, null, batcher, committer);
+    }
+
+    private KafkaConsumerPipeline(
+        ActorSystem system,
+        KafkaConsumerSettings settings,
+        KafkaRecordProcessor processor,
+        Supplier<Source<ConsumerMessage.CommittableMessage<String, String>, Consumer.Control>> source,
+        Supplier<Source<
+            Pair<TopicPartition, Source<ConsumerMessage.CommittableMessage<String, String>, NotUsed>>,
+            Consumer.Control>> partitionedSource,
+        Flow<ConsumerMessage.Committable, ConsumerMessage.Committable, NotUsed> batcher,
+        Flow<ConsumerMessage.Committable, Done, NotUsed> committer) {
+        this.system = system;
+        this.settings = settings;
+        this.materializer = SystemMaterializer.get(system).materializer();
+        this.processor = processor;
+        this.source = source;
+        this.partitionedSource = partitionedSource;
+        this.batcher = batcher;
+        this.committer = committer;
+    }
+
+    public synchronized void start() {
+        if (done != null) {
+            return;
+        }
+        Pair<UniqueKillSwitch, CompletionStage<Done>> materialized = RestartSource
+            .onFailuresWithBackoff(
+                RestartSettings.create(settings.restartMinBackoff(), settings.restartMaxBackoff(), 0.2),
+                this::consumeAndCommit)
+            .viaMat(KillSwitches.single(), Keep.right())
+            .toMat(Sink.ignore(), Keep.both())
+            .run(materializer);
+        killSwitch = materialized.first();
+        done = materialized.second();
+        tick = system.scheduler().scheduleAtFixedRate(
+            Duration.ofSeconds(1), Duration.ofSeconds(1), this::onTick, system.dispatcher());
+    }
+
+    /**
+     * Stops fetching and completes once the records already fetched are processed and committed.
+     * A stream failing meanwhile is not restarted.
+     */
+    public synchronized CompletionStage<Done> drainAndShutdown() {
+        if (done == null) {
+            return CompletableFuture.completedFuture(Done.getInstance());
+        }
+        tick.cancel();
+        Consumer.Control current = control.get();
+        CompletionStage<Done> drained = current != null
+            ? current.drainAndShutdown(done, system.dispatcher())
+            : done;
+        // no restart while draining, and a stream still waiting for its backoff stops right away
+        return drained.whenComplete((result, ex) -> killSwitch.shutdown());
+    }
+
+    public ConsumerStats stats() {
+        long commitCount = commits.sum();
+        boolean running;
+        synchronized (this) {
+            running = done != null && !done.toCompletableFuture().isDone();
+        }
+        return new ConsumerStats(
+            settings.topic(),
+            settings.groupId(),
+            running,
+            partitionedSource != null,
+            activePartitions.get(),
+            processed.sum(),
+            failed.sum(),
+            Math.max(0, materializations.get() - 1),
+            processedPerSecond,
+            commitCount,
+            committedRecords.sum(),
+            commitCount == 0 ? 0.0 : (double) sumCommitLatencyMs.sum() / commitCount,
+            maxCommitLatencyMs.get(),
+            consumerLag);
+    }
+
+    private Source<Done, Consumer.Control> consumeAndCommit() {
+        materializations.incrementAndGet();
+        Source<ConsumerMessage.Committable, Consumer.Control> processedOffsets = partitionedSource != null
+            ? partitionedSource.get()
+                .mapMaterializedValue(this::registerControl)
+                .flatMapMerge(settings.maxPartitions(), partition -> partition.second()
+                    .via(processInKeyOrder())
+                    .watchTermination((notUsed, terminated) -> {
+                        activePartitions.incrementAndGet();
+                        terminated.whenComplete((ignored, ex) -> activePartitions.decrementAndGet());
+                        return notUsed;
+                    }))
+            : source.get()
+                .mapMaterializedValue(this::registerControl)
+                .via(processInKeyOrder());
+        return processedOffsets
+            .via(batcher)
+            .map(batch -> {
+                commitsInFlight.add(new long[]{System.nanoTime(), batch.batchSize()});
+                return batch;
+            })
+            .via(committer)
+            .map(committed -> {
+                long[] started = commitsInFlight.poll();
+                if (started != null) {
+                    long latencyMs = (System.nanoTime() - started[0]) / 1_000_000;
+                    commits.increment();
+                    committedRecords.add(started[1]);
+                    sumCommitLatencyMs.add(latencyMs);
+                    maxCommitLatencyMs.accumulate(latencyMs);
+                }
+                return committed;
+            })
+            // a batch whose commit failed with the stream is never acknowledged
+            .watchTermination((mat, terminated) -> {
+                terminated.whenComplete((ignored, ex) -> commitsInFlight.clear());
+                return mat;
+            });
+    }
+
+    private Consumer.Control registerControl(Consumer.Control started) {
+        control.set(started);
+        return started;
+    }
+
+    /**
+     * Processes up to parallelism records at once, but when keyOrdered a record starts only after the
+     * previous record with the same key has finished (records without a key are not ordered). Created
+     * per (sub-)stream.
+     */
+    private Flow<ConsumerMessage.CommittableMessage<String, String>, ConsumerMessage.Committable, NotUsed>
+        processInKeyOrder() {
+        // key -> processing of the latest record with that key, dropped once it completes
+        Map<String, CompletableFuture<?>> latestByKey = new ConcurrentHashMap<>();
+        return Flow.<ConsumerMessage.CommittableMessage<String, String>>create()
+            .mapAsync(settings.parallelism(), message -> {
+                ConsumerRecord<String, String> record = message.record();
+                String key = settings.keyOrdered() ? record.key() : null;
+                CompletableFuture<?> previous = key != null ? latestByKey.get(key) : null;
+                CompletableFuture<?> processing = previous == null
+                    ? processor.process(record).toCompletableFuture()
+                    : previous.handle((ignored, ex) -> null)
+                        .thenCompose(ignored -> processor.process(record));
+                if (key != null) {
+                    latestByKey.put(key, processing);
+                    processing.whenComplete((ignored, ex) -> latestByKey.remove(key, processing));
+                }
+                return processing.handle((ignored, ex) -> {
+                    if (ex != null) {
+                        failed.increment();
+                        throw new IllegalStateException(
+                            "Processing failed at " + record.topic() + "-" + record.partition()
+                                + "@" + record.offset(), ex);
+                    }
+                    processed.increment();
+                    return (ConsumerMessage.Committable) message.committableOffset();
+                });
+            });
+    }
+
+    private void onTick() {
+        long processedNow = processed.sum();
+        processedPerSecond = processedNow - processedAtLastTick;
+        processedAtLastTick = processedNow;
+
+        Consumer.Control current = control.get();
+        if (current != null) {
+            current.getMetrics().thenAccept(metrics -> consumerLag = lag(metrics));
+        }
+    }
+
+    /** Sum of records-lag over the assigned partitions, -1 while the client has not reported any. */
+    private static long lag(Map<MetricName, Metric> metrics) {
+        long lag = -1;
+        for (Map.Entry<MetricName, Metric> metric : metrics.entrySet()) {
+            MetricName name = metric.getKey();
+            if (!"records-lag".equals(name.name()) || !name.tags().containsKey("partition")) {
+                continue;
+            }
+            Object value = metric.getValue().metricValue();
+            if (value instanceof Number number && !Double.isNaN(number.doubleValue())) {
+                lag = Math.max(lag, 0) + number.longValue();
+            }
+        }
+        return lag;
+    }
+}
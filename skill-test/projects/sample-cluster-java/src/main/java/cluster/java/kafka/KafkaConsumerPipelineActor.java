@@ -0,0 +1,79 @@
+package cluster.java.kafka;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.japi.function.Creator;
+
+import java.io.Serializable;
+
+/**
+ * Owns one {@link KafkaConsumerPipeline}: starts it with the actor and drains it (in-flight records
+ * processed and committed) on {@link Stop} before stopping. Run as a cluster singleton so one node
+ * consumes the topic for the whole cluster, or on every node with a partitioned pipeline so the
+ * group's partitions are consumed by all nodes.
+ */
+public class KafkaConsumerPipelineActor extends AbstractActor {
+
+    public enum Stop implements Serializable {
+        INSTANCE
+    }
+
+    public enum GetConsumerStats implements Serializable {
+        INSTANCE
+    }
+
+    private enum Drained {
+        INSTANCE
+    }
+
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+    private final Creator<KafkaConsumerPipeline> pipelineFactory;
+    private KafkaConsumerPipeline pipeline;
+    private boolean draining;
+
+    /** The pipeline is created per actor incarnation, so a singleton handover starts a fresh consumer. */
+    public static Props props(Creator<KafkaConsumerPipeline> pipelineFactory) {
+        return Props.create(KafkaConsumerPipelineActor.class, () -> new KafkaConsumerPipelineActor(pipelineFactory));
+    }
+
+    public KafkaConsumerPipelineActor(Creator<KafkaConsumerPipeline> pipelineFactory) {
+        this.pipelineFactory = pipelineFactory;
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        pipeline = pipelineFactory.create();
+        pipeline.start();
+    }
+
+    @Override
+    public void postStop() {
+        if (!draining) {
+            pipeline.drainAndShutdown();
+        }
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+            .match(GetConsumerStats.class, ignored -> getSender().tell(pipeline.stats(), getSelf()))
+            .match(Stop.class, ignored -> {
+                if (draining) {
+                    return;
+                }
+                draining = true;
+                ActorRef self = getSelf();
+                pipeline.drainAndShutdown().whenComplete((done, ex) -> {
+                    if (ex != null) {
+                        log.warning("Kafka consumer pipeline drained with failure: {}", ex.getMessage());
+                    }
+                    self.tell(Drained.INSTANCE, self);
+                });
+            })
+            .match(Drained.class, ignored -> getContext().stop(getSelf()))
+            .build();
+    }
+}
@@ -0,0 +1,133 @@
+package cluster.java.kafka;
+
+import java.io.Serializable;
+import java.time.Duration;
+
+/**
+ * Tuning for a {@link KafkaConsumerPipeline}. Start from {@link #builder(String, String)} or adjust existing
+ * settings with {@link #toBuilder()}.
+ *
+ * @param topic              topic the pipeline subscribes to
+ * @param groupId            consumer group; offsets are committed for it
+ * @param parallelism        records handed to the processor at once, per partition stream when partitioned
+ *                           (mapAsync, results kept in offset order)
+ * @param commitMaxBatch     offsets aggregated into one commit at most
+ * @param commitMaxInterval  a partial commit batch is committed after this long
+ * @param restartMinBackoff  first backoff after a failed stream before the consumer re-joins the group
+ * @param restartMaxBackoff  cap on the exponential restart backoff
+ * @param partitioned        true runs one sub-stream per assigned partition (committablePartitionedSource)
+ * @param maxPartitions      partition sub-streams run at once when partitioned; must cover the partitions a
+ *                           node can be assigned, a partition beyond it waits for another to be revoked
+ * @param keyOrdered         true processes records of one key one after another, false lets them overlap too
+ */
+public record KafkaConsumerSettings(
+    String topic,
+    String groupId,
+    int parallelism,
+    long commitMaxBatch,
+    Duration commitMaxInterval,
+    Duration restartMinBackoff,
+    Duration restartMaxBackoff,
+    boolean partitioned,
+    int maxPartitions,
+    boolean keyOrdered
+) implements Serializable {
+
+    public static KafkaConsumerSettings defaults(String topic, String groupId) {
+        return new KafkaConsumerSettings(
+            topic, groupId, 8, 1000, Duration.ofSeconds(1), Duration.ofSeconds(1), Duration.ofSeconds(30), false, 64,
+            true);
+    }
+
+    /** The {@link #defaults(String, String)} to adjust before {@link Builder#build()}. */
+    public static Builder builder(String topic, String groupId) {
+        return defaults(topic, groupId).toBuilder();
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    public static final class Builder {
+
+        private String topic;
+        private String groupId;
+        private int parallelism;
+        private long commitMaxBatch;
+        private Duration commitMaxInterval;
+        private Duration restartMinBackoff;
+        private Duration restartMaxBackoff;
+        private boolean partitioned;
+        private int maxPartitions;
+        private boolean keyOrdered;
+
+        private Builder(KafkaConsumerSettings settings) {
+            this.topic = settings.topic();
+            this.groupId = settings.groupId();
+            this.parallelism = settings.parallelism();
+            this.commitMaxBatch = settings.commitMaxBatch();
+            this.commitMaxInterval = settings.commitMaxInterval();
+            this.restartMinBackoff = settings.restartMinBackoff();
+            this.restartMaxBackoff = settings.restartMaxBackoff();
+            this.partitioned = settings.partitioned();
+            this.maxPartitions = settings.maxPartitions();
+            this.keyOrdered = settings.keyOrdered();
+        }
+
+        public Builder topic(String topic) {
+            this.topic = topic;
+            return this;
+        }
+
+        public Builder groupId(String groupId) {
+            this.groupId = groupId;
+            return this;
+        }
+
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public Builder commitMaxBatch(long commitMaxBatch) {
+            this.commitMaxBatch = commitMaxBatch;
+            return this;
+        }
+
+        public Builder commitMaxInterval(Duration commitMaxInterval) {
+            this.commitMaxInterval = commitMaxInterval;
+            return this;
+        }
+
+        public Builder restartMinBackoff(Duration restartMinBackoff) {
+            this.restartMinBackoff = restartMinBackoff;
+            return this;
+        }
+
+        public Builder restartMaxBackoff(Duration restartMaxBackoff) {
+            this.restartMaxBackoff = restartMaxBackoff;
+            return this;
+        }
+
+        public Builder partitioned(boolean partitioned) {
+            this.partitioned = partitioned;
+            return this;
+        }
+
+        public Builder maxPartitions(int maxPartitions) {
+            this.maxPartitions = maxPartitions;
+            return this;
+        }
+
+        public Builder keyOrdered(boolean keyOrdered) {
+            this.keyOrdered = keyOrdered;
+            return this;
+        }
+
+        public KafkaConsumerSettings build() {
+            return new KafkaConsumerSettings(
+                topic, groupId, parallelism, commitMaxBatch, commitMaxInterval, restartMinBackoff, restartMaxBackoff,
+                partitioned, maxPartitions, keyOrdered);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package cluster.java.kafka;
+
+import java.io.Serializable;
+import java.time.Duration;
+
+/**
+ * Tuning for the node's {@link KafkaBulkPublisher}. Start from {@link #builder()} or adjust existing settings
+ * with {@link #toBuilder()}.
+ *
+ * @param lingerMs            producer {@code linger.ms}: how long a partition batch waits to fill before it is sent
+ * @param batchSizeBytes      producer {@code batch.size}: per-partition batch bytes sent as soon as they fill
+ * @param compressionType     producer {@code compression.type}: none, gzip, snappy, lz4 or zstd
+ * @param acks                producer {@code acks}; "all" keeps the idempotent producer's ordering guarantees
+ * @param maxBatchRecords     records per publish batch, the unit that is queued and answered with its offsets
+ * @param queueCapacity       batches waiting for the producer stream before new ones are rejected
+ * @param maxInFlightBatches  batches the producer stream has handed to the Kafka producer and awaits acks for
+ * @param batchTimeout        a batch not acknowledged within this fails, whatever the producer is still doing
+ */
+public record KafkaPublishSettings(
+    int lingerMs,
+    int batchSizeBytes,
+    String compressionType,
+    String acks,
+    int maxBatchRecords,
+    int queueCapacity,
+    int maxInFlightBatches,
+    Duration batchTimeout
+) implements Serializable {
+
+    public static KafkaPublishSettings defaults() {
+        return new KafkaPublishSettings(20, 262_144, "lz4", "all", 1000, 256, 100, Duration.ofSeconds(30));
+    }
+
+    /** The {@link #defaults()} to adjust before {@link Builder#build()}. */
+    public static Builder builder() {
+        return defaults().toBuilder();
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    public static final class Builder {
+
+        private int lingerMs;
+        private int batchSizeBytes;
+        private String compressionType;
+        private String acks;
+        private int maxBatchRecords;
+        private int queueCapacity;
+        private int maxInFlightBatches;
+        private Duration batchTimeout;
+
+        private Builder(KafkaPublishSettings settings) {
+            this.lingerMs = settings.lingerMs();
+            this.batchSizeBytes = settings.batchSizeBytes();
+            this.compressionType = settings.compressionType();
+            this.acks = settings.acks();
+            this.maxBatchRecords = settings.maxBatchRecords();
+            this.queueCapacity = settings.queueCapacity();
+            this.maxInFlightBatches = settings.maxInFlightBatches();
+            this.batchTimeout = settings.batchTimeout();
+        }
+
+        public Builder lingerMs(int lingerMs) {
+            this.lingerMs = lingerMs;
+            return this;
+        }
+
+        public Builder batchSizeBytes(int batchSizeBytes) {
+            this.batchSizeBytes = batchSizeBytes;
+            return this;
+        }
+
+        public Builder compressionType(String compressionType) {
+            this.compressionType = compressionType;
+            return this;
+        }
+
+        public Builder acks(String acks) {
+            this.acks = acks;
+            return this;
+        }
+
+        public Builder maxBatchRecords(int maxBatchRecords) {
+            this.maxBatchRecords = maxBatchRecords;
+            return this;
+        }
+
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Builder maxInFlightBatches(int maxInFlightBatches) {
+            this.maxInFlightBatches = maxInFlightBatches;
+            return this;
+        }
+
+        public Builder batchTimeout(Duration batchTimeout) {
+            this.batchTimeout = batchTimeout;
+            return this;
+        }
+
+        public KafkaPublishSettings build() {
+            return new KafkaPublishSettings(
+                lingerMs, batchSizeBytes, compressionType, acks, maxBatchRecords, queueCapacity, maxInFlightBatches,
+                batchTimeout);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package cluster.java.kafka;
+
+import akka.event.LoggingAdapter;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Processing step of a {@link KafkaConsumerPipeline}. A record's offset is committed only after its
+ * stage completes; a failed stage fails the pipeline, which re-joins the group after a backoff and
+ * gets the record again (at-least-once), so processing should be idempotent.
+ */
+public interface KafkaRecordProcessor {
+
+    CompletionStage<?> process(ConsumerRecord<String, String> record);
+
+    /** Logs every record; the default when no other processor is configured. */
+    static KafkaRecordProcessor logging(LoggingAdapter log) {
+        return record -> {
+            log.info(
+                "Consumed Kafka record. topic={}, partition={}, offset={}, key={}",
+                record.topic(),
+                record.partition(),
+                record.offset(),
+                record.key());
+            return CompletableFuture.completedFuture(null);
+        };
+    }
+}
@@ -2,22 +2,43 @@ package cluster.java;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.cluster.Cluster;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ShardRegion;
+import akka.testkit.ExplicitlyTriggeredScheduler;
 import akka.testkit.javadsl.TestKit;
 import cluster.java.cafe24.Cafe24ApiManagerActor;
+import cluster.java.cafe24.Cafe24CallerSettings;
+import cluster.java.cafe24.Cafe24Client;
+import cluster.java.cafe24.Cafe24GlobalBudget;
 import cluster.java.cafe24.Cafe24MetricsSingletonActor;
+import cluster.java.cafe24.Cafe24NodeMetrics;
 import cluster.java.cafe24.DummyCafe24Api;
+import cluster.java.cafe24.HttpCafe24Client;
+import com.sun.net.httpserver.HttpServer;
 import com.typesafe.config.ConfigFactory;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class Cafe24ApiActorTest {
@@ -92,4 +113,790 @@ class Cafe24ApiActorTest {
             });
         }};
     }
+
+    @Test
+    void adaptiveRateShouldApproachLeakRateWhenConfiguredRateIsFarAbove() {
+        DummyCafe24Api api = new DummyCafe24Api(4, 10);
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        Cafe24Client countingClient = new Cafe24Client() {
+            @Override
+            public CompletionStage<Cafe24Client.ApiCallResult> call(String mallId, String word) {
+                upstreamCalls.incrementAndGet();
+                return api.call(mallId, word);
+            }
+
+            @Override
+            public void close() {
+                api.close();
+            }
+        };
+        new TestKit(system) {{
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-adaptive");
+            ActorRef manager = system.actorOf(
+                Cafe24ApiManagerActor.props(100, countingClient, metrics), "cafe24-manager-test-adaptive");
+
+            for (int i = 0; i < 30; i++) {
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-adaptive", "w-" + i), getRef());
+            }
+            for (int i = 0; i < 30; i++) {
+                assertEquals(200,
+                    expectMsgClass(Duration.ofSeconds(15), Cafe24ApiManagerActor.ApiResponse.class).statusCode());
+            }
+            // a fixed 100 calls/s against a bucket leaking 10/s would run into 429s and retry most of them
+            assertTrue(upstreamCalls.get() < 40, "upstream calls " + upstreamCalls.get());
+        }};
+        countingClient.close();
+    }
+
+    @Test
+    void mallParallelismShouldOverlapSlowUpstreamCallsAndBeAdjustableAtRuntime() {
+        UpstreamCounter upstream = new UpstreamCounter();
+        Cafe24Client slowClient = delayedCountingClient(new DummyCafe24Api(100, 100), 200, upstream);
+        new TestKit(system) {{
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-parallel");
+            Cafe24CallerSettings settings = Cafe24CallerSettings.builder(100).orderedResponses(false).build();
+            ActorRef manager = system.actorOf(
+                Cafe24ApiManagerActor.props(settings, slowClient, metrics), "cafe24-manager-test-parallel");
+
+            manager.tell(new Cafe24ApiManagerActor.SetMallParallelism("mall-parallel", 4), getRef());
+            assertEquals(
+                new Cafe24ApiManagerActor.MallParallelism("mall-parallel", 4, false),
+                expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.MallParallelism.class));
+
+            for (int i = 0; i < 8; i++) {
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-parallel", "p-" + i), getRef());
+            }
+            for (int i = 0; i < 8; i++) {
+                assertEquals(200,
+                    expectMsgClass(Duration.ofSeconds(5), Cafe24ApiManagerActor.ApiResponse.class).statusCode());
+            }
+            // overlapping, but never more than the adjusted parallelism
+            assertEquals(4, upstream.maxInFlight());
+        }};
+        slowClient.close();
+    }
+
+    @Test
+    void mallRetryBudgetShouldBeAdjustableAtRuntime() {
+        try (DummyCafe24Api api = new DummyCafe24Api(1, 1)) {
+            new TestKit(system) {{
+                ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-retry");
+                ActorRef manager = system.actorOf(
+                    Cafe24ApiManagerActor.props(100, api, metrics), "cafe24-manager-test-retry");
+
+                manager.tell(new Cafe24ApiManagerActor.SetMallRetryBudget("mall-retry", 0), getRef());
+                assertEquals(
+                    new Cafe24ApiManagerActor.MallRetryBudget("mall-retry", 0),
+                    expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.MallRetryBudget.class));
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-retry", "first"), getRef());
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-retry", "second"), getRef());
+                assertEquals(200, expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.ApiResponse.class)
+                    .statusCode());
+                assertEquals(429, expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.ApiResponse.class)
+                    .statusCode());
+
+                manager.tell(new Cafe24ApiManagerActor.SetMallRetryBudget("mall-retry", 3), getRef());
+                expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.MallRetryBudget.class);
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-retry", "third"), getRef());
+                assertEquals(200, expectMsgClass(Duration.ofSeconds(10), Cafe24ApiManagerActor.ApiResponse.class)
+                    .statusCode());
+            }};
+        }
+    }
+
+    @Test
+    void strictPriorityLaneShouldOvertakeQueuedBulkCalls() {
+        try (DummyCafe24Api api = new DummyCafe24Api(100, 100)) {
+            new TestKit(system) {{
+                ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-lanes");
+                Cafe24CallerSettings settings = Cafe24CallerSettings.builder(2).strictPriority(true).build();
+                ActorRef manager = system.actorOf(
+                    Cafe24ApiManagerActor.props(settings, api, metrics), "cafe24-manager-test-lanes");
+
+                for (int i = 0; i < 6; i++) {
+                    manager.tell(new Cafe24ApiManagerActor.ApiRequest(
+                        "mall-lanes", "bulk-" + i, Cafe24ApiManagerActor.CallPriority.BULK), getRef());
+                }
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest(
+                    "mall-lanes", "urgent", Cafe24ApiManagerActor.CallPriority.INTERACTIVE), getRef());
+
+                List<String> answered = new ArrayList<>();
+                for (int i = 0; i < 7; i++) {
+                    answered.add(expectMsgClass(Duration.ofSeconds(5), Cafe24ApiManagerActor.ApiResponse.class)
+                        .word());
+                }
+                // at 2 calls/s only the burst and the calls already held by the merge and throttle go before it
+                assertTrue(answered.indexOf("urgent") <= 4, "answered " + answered);
+
+                manager.tell(new Cafe24ApiManagerActor.GetMallQueueStats("mall-lanes"), getRef());
+                Cafe24ApiManagerActor.MallQueueStats stats =
+                    expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.MallQueueStats.class);
+                assertTrue(stats.strictPriority());
+                Cafe24ApiManagerActor.LaneQueueStats interactive = stats.lanes().get(0);
+                Cafe24ApiManagerActor.LaneQueueStats bulk = stats.lanes().get(2);
+                assertEquals(Cafe24ApiManagerActor.CallPriority.INTERACTIVE, interactive.priority());
+                assertEquals(1, interactive.enqueued());
+                assertEquals(6, bulk.enqueued());
+                assertEquals(0, bulk.depth());
+                assertEquals(0, bulk.dropped());
+                assertTrue(bulk.maxQueueDelayMs() > interactive.maxQueueDelayMs());
+            }};
+        }
+    }
+
+    @Test
+    void fullLaneShouldShedCallsImmediatelyWith503() {
+        try (DummyCafe24Api api = new DummyCafe24Api(100, 100)) {
+            new TestKit(system) {{
+                ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-shed");
+                Cafe24CallerSettings settings = Cafe24CallerSettings.builder(4).laneCapacity(2).build();
+                ActorRef manager = system.actorOf(
+                    Cafe24ApiManagerActor.props(settings, api, metrics), "cafe24-manager-test-shed");
+
+                for (int i = 0; i < 40; i++) {
+                    manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-shed", "s-" + i), getRef());
+                }
+                int shed = 0;
+                int servedBeforeLastShed = 0;
+                int served = 0;
+                for (int i = 0; i < 40; i++) {
+                    Cafe24ApiManagerActor.ApiResponse response =
+                        expectMsgClass(Duration.ofSeconds(10), Cafe24ApiManagerActor.ApiResponse.class);
+                    if (response.statusCode() == 503) {
+                        shed += 1;
+                        servedBeforeLastShed = served;
+                        assertTrue(response.retryAfterSeconds() >= 1);
+                    } else {
+                        assertEquals(200, response.statusCode());
+                        served += 1;
+                    }
+                }
+                // answered at once instead of after the caller's ask timeout: at 4 calls/s no more than
+                // the first burst is served before the last shed call is answered
+                assertTrue(servedBeforeLastShed <= 4, "served before last shed " + servedBeforeLastShed);
+                // beyond the lane, only the burst and the elements held by the stream stages get through
+                assertTrue(shed >= 20, "shed " + shed);
+
+                int expectedShed = shed;
+                awaitAssert(Duration.ofSeconds(5), Duration.ofMillis(200), () -> {
+                    metrics.tell(new Cafe24MetricsSingletonActor.GetMallMetrics("mall-shed"), getRef());
+                    Cafe24MetricsSingletonActor.MallMetrics mallMetrics =
+                        expectMsgClass(Duration.ofMillis(500), Cafe24MetricsSingletonActor.MallMetrics.class);
+                    assertEquals(expectedShed, mallMetrics.shed());
+                    assertEquals(40 - expectedShed, mallMetrics.totalCalls());
+                    return null;
+                });
+            }};
+        }
+    }
+
+    @Test
+    void globalBudgetShouldChargeRateOnlyWhenOutOfTokens() throws Exception {
+        // the refill tick fires only when the test moves this scheduler's clock
+        ExplicitlyTriggeredScheduler scheduler = new ExplicitlyTriggeredScheduler(
+            ConfigFactory.empty(), system.log(), Thread::new);
+        Cafe24GlobalBudget budget = new Cafe24GlobalBudget(0, 20, scheduler, system.dispatcher());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(budget.acquire("mall-burst").toCompletableFuture().isDone());
+        }
+        CompletableFuture<Void> outOfTokens = budget.acquire("mall-a").toCompletableFuture();
+        // a token is back after 50ms, but mall-a is still waiting for the tick
+        Thread.sleep(100);
+        CompletableFuture<Void> behindWaiter = budget.acquire("mall-b").toCompletableFuture();
+        assertFalse(outOfTokens.isDone());
+        assertFalse(behindWaiter.isDone());
+
+        Cafe24ApiManagerActor.GlobalBudgetStats stats = budget.stats();
+        assertEquals(0, stats.waitedForConcurrency());
+        assertEquals(1, stats.waitedForRate());
+        assertEquals(1, stats.waitedBehindWaiters());
+        assertEquals(2, stats.waiting());
+
+        scheduler.timePasses(FiniteDuration.create(1, TimeUnit.SECONDS));
+        // mall-a waited longer and is granted first
+        outOfTokens.get(1, TimeUnit.SECONDS);
+        assertTrue(budget.stats().acquired() >= 21);
+    }
+
+    @Test
+    void globalBudgetShouldShareConcurrencyFairlyBetweenMalls() {
+        Cafe24Client slowClient = delayedCountingClient(new DummyCafe24Api(100, 100), 100, new UpstreamCounter());
+        new TestKit(system) {{
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-global");
+            Cafe24CallerSettings settings = Cafe24CallerSettings.builder(100)
+                .perMallParallelism(8)
+                .globalMaxConcurrent(1)
+                .build();
+            ActorRef manager = system.actorOf(
+                Cafe24ApiManagerActor.props(settings, slowClient, metrics), "cafe24-manager-test-global");
+
+            for (int i = 0; i < 8; i++) {
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-heavy", "heavy-" + i), getRef());
+            }
+            expectNoMessage(Duration.ofMillis(50));
+            for (int i = 0; i < 2; i++) {
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-light", "light-" + i), getRef());
+            }
+
+            List<String> answered = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                answered.add(expectMsgClass(Duration.ofSeconds(5), Cafe24ApiManagerActor.ApiResponse.class).word());
+            }
+            // first come first served would answer the light mall after all of the heavy backlog
+            assertTrue(answered.indexOf("light-1") <= 5, "answered " + answered);
+
+            manager.tell(Cafe24ApiManagerActor.GetGlobalBudgetStats.INSTANCE, getRef());
+            Cafe24ApiManagerActor.GlobalBudgetStats stats =
+                expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.GlobalBudgetStats.class);
+            assertEquals(1, stats.maxConcurrent());
+            assertEquals(10, stats.acquired());
+            assertEquals(0, stats.inFlight());
+            assertEquals(0, stats.waiting());
+            assertTrue(stats.waitedForConcurrency() >= 8, "stats " + stats);
+            assertEquals(0, stats.waitedForRate());
+        }};
+        slowClient.close();
+    }
+
+    @Test
+    void responseCacheShouldServeRepeatedWordsWithoutUpstreamCalls() {
+        UpstreamCounter upstream = new UpstreamCounter();
+        Cafe24Client countingClient = delayedCountingClient(new DummyCafe24Api(100, 100), 100, upstream);
+        new TestKit(system) {{
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-cache");
+            Cafe24CallerSettings settings = Cafe24CallerSettings.builder(100)
+                .responseCacheTtl(Duration.ofSeconds(30))
+                .responseCacheMaxWeight(12)
+                .build();
+            ActorRef manager = system.actorOf(
+                Cafe24ApiManagerActor.props(settings, countingClient, metrics), "cafe24-manager-test-cache");
+
+            // concurrent misses share one load, later calls are hits
+            for (int i = 0; i < 5; i++) {
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-cache", "hot"), getRef());
+            }
+            for (int i = 0; i < 5; i++) {
+                assertEquals("hot", expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.ApiResponse.class)
+                    .result());
+            }
+            for (int i = 0; i < 3; i++) {
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-cache", "hot"), getRef());
+                assertEquals(200, expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.ApiResponse.class)
+                    .statusCode());
+            }
+            assertEquals(1, upstream.calls());
+
+            // "hot" (weight 6) is the least recently used once two more words are cached
+            for (String word : List.of("a1", "a2")) {
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-cache", word), getRef());
+                expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.ApiResponse.class);
+            }
+            manager.tell(new Cafe24ApiManagerActor.GetMallCacheStats("mall-cache"), getRef());
+            assertEquals(
+                new Cafe24ApiManagerActor.MallCacheStats("mall-cache", true, 2, 8, 3, 7, 1, 0),
+                expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.MallCacheStats.class));
+            assertEquals(3, upstream.calls());
+        }};
+        countingClient.close();
+    }
+
+    @Test
+    void failingUpstreamCallsShouldBeAnsweredWith502AndReleaseTheirPermits() {
+        DummyCafe24Api api = new DummyCafe24Api(100, 100);
+        Cafe24Client failingClient = new Cafe24Client() {
+            @Override
+            public CompletionStage<Cafe24Client.ApiCallResult> call(String mallId, String word) {
+                if (word.equals("throws")) {
+                    throw new IllegalStateException("client bug");
+                }
+                if (word.equals("fails")) {
+                    return CompletableFuture.failedFuture(new IllegalStateException("connection reset"));
+                }
+                return api.call(mallId, word);
+            }
+
+            @Override
+            public void close() {
+                api.close();
+            }
+        };
+        new TestKit(system) {{
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-failing");
+            // one mall permit and one global slot: a leaked permit would block every later call
+            Cafe24CallerSettings settings = Cafe24CallerSettings.builder(100).globalMaxConcurrent(1).build();
+            ActorRef manager = system.actorOf(
+                Cafe24ApiManagerActor.props(settings, failingClient, metrics), "cafe24-manager-test-failing");
+
+            for (String word : List.of("fails", "throws", "fails", "ok")) {
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-failing", word), getRef());
+            }
+            for (String word : List.of("fails", "throws", "fails")) {
+                Cafe24ApiManagerActor.ApiResponse response =
+                    expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.ApiResponse.class);
+                assertEquals(word, response.word());
+                assertEquals(502, response.statusCode());
+                assertEquals("Bad Gateway: IllegalStateException", response.result());
+            }
+            assertEquals(200, expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.ApiResponse.class)
+                .statusCode());
+
+            // the mall stream is still running and every permit came back
+            manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-failing", "again"), getRef());
+            assertEquals(200, expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.ApiResponse.class)
+                .statusCode());
+            manager.tell(Cafe24ApiManagerActor.GetGlobalBudgetStats.INSTANCE, getRef());
+            Cafe24ApiManagerActor.GlobalBudgetStats stats =
+                expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.GlobalBudgetStats.class);
+            assertEquals(0, stats.inFlight());
+            assertEquals(5, stats.acquired());
+        }};
+        failingClient.close();
+    }
+
+    @Test
+    void identicalInFlightCallsShouldShareOneUpstreamCall() {
+        try (DummyCafe24Api api = new DummyCafe24Api(1, 1)) {
+            new TestKit(system) {{
+                ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-flight");
+                ActorRef manager = system.actorOf(
+                    Cafe24ApiManagerActor.props(Cafe24CallerSettings.builder(100).singleFlight(true).build(), api, metrics),
+                    "cafe24-manager-test-flight");
+
+                // a one-slot bucket: without single-flight all but one of these would be throttled
+                for (int i = 0; i < 10; i++) {
+                    manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-flight", "hot"), getRef());
+                }
+                for (int i = 0; i < 10; i++) {
+                    assertEquals(200, expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.ApiResponse.class)
+                        .statusCode());
+                }
+
+                manager.tell(new Cafe24ApiManagerActor.GetMallQueueStats("mall-flight"), getRef());
+                Cafe24ApiManagerActor.MallQueueStats stats =
+                    expectMsgClass(Duration.ofSeconds(3), Cafe24ApiManagerActor.MallQueueStats.class);
+                assertEquals(9, stats.coalesced());
+                assertEquals(1, stats.lanes().get(1).enqueued());
+            }};
+        }
+    }
+
+    @Test
+    void dummyBucketShouldLeakContinuouslyWithoutSecondBoundaries() throws Exception {
+        try (DummyCafe24Api api = new DummyCafe24Api(2, 10)) {
+            assertEquals(200, api.call("mall-leak", "hello").toCompletableFuture().join().statusCode());
+            assertEquals(200, api.call("mall-leak", "hello").toCompletableFuture().join().statusCode());
+            Cafe24Client.ApiCallResult throttled = api.call("mall-leak", "hello").toCompletableFuture().join();
+            assertEquals(429, throttled.statusCode());
+            assertEquals(1, throttled.callRemainSeconds());
+            assertEquals(200, api.call("mall-other", "hello").toCompletableFuture().join().statusCode());
+
+            // one slot leaks every 100ms rather than a whole second's worth at once
+            Thread.sleep(150);
+            assertEquals(200, api.call("mall-leak", "hello").toCompletableFuture().join().statusCode());
+            assertEquals(429, api.call("mall-leak", "hello").toCompletableFuture().join().statusCode());
+        }
+    }
+
+    @Test
+    void httpClientShouldCallStandInServerThroughThePipeline() throws Exception {
+        HttpServer server = startStandInCafe24Server(new DummyCafe24Api(1, 1));
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        try (HttpCafe24Client client = new HttpCafe24Client(baseUrl, null, Duration.ofSeconds(2), Duration.ofSeconds(2))) {
+            new TestKit(system) {{
+                ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-http");
+                ActorRef manager = system.actorOf(
+                    Cafe24ApiManagerActor.props(2, client, metrics), "cafe24-manager-test-http");
+
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-http", "hello"), getRef());
+                Cafe24ApiManagerActor.ApiResponse response =
+                    expectMsgClass(Duration.ofSeconds(5), Cafe24ApiManagerActor.ApiResponse.class);
+                assertEquals(200, response.statusCode());
+                assertEquals("world", response.result());
+                assertEquals(1, response.bucketUsed());
+                assertEquals(1, response.bucketMax());
+            }};
+
+            Cafe24Client.ApiCallResult throttled = client.call("mall-http", "hello").toCompletableFuture().join();
+            assertEquals(429, throttled.statusCode());
+            assertEquals(1, throttled.callRemainSeconds());
+        } finally {
+            server.stop(0);
+        }
+
+        try (HttpCafe24Client unreachable = new HttpCafe24Client(
+            "http://127.0.0.1:1", null, Duration.ofSeconds(1), Duration.ofSeconds(1))) {
+            assertEquals(502, unreachable.call("mall-http", "hello").toCompletableFuture().join().statusCode());
+        }
+    }
+
+    /** Serves the HttpCafe24Client protocol from a DummyCafe24Api bucket. */
+    private static HttpServer startStandInCafe24Server(DummyCafe24Api bucket) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/v2/malls/", exchange -> {
+            String mallId = exchange.getRequestURI().getPath().split("/")[4];
+            String word = exchange.getRequestURI().getQuery().substring("word=".length());
+            Cafe24Client.ApiCallResult result = bucket.call(mallId, word).toCompletableFuture().join();
+            byte[] body = result.body().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("X-Api-Call-Limit", result.bucketUsed() + "/" + result.bucketMax());
+            if (result.statusCode() == 429) {
+                exchange.getResponseHeaders().add("Retry-After", String.valueOf(result.callRemainSeconds()));
+            }
+            exchange.sendResponseHeaders(result.statusCode(), body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    @Test
+    void metricsSingletonShouldMergeDeltaBatchesFromSeveralNodes() {
+        new TestKit(system) {{
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-delta");
+
+            Cafe24NodeMetrics nodeA = new Cafe24NodeMetrics();
+            Cafe24NodeMetrics nodeB = new Cafe24NodeMetrics();
+            nodeA.record("mall-delta", 200, 10, 5, 0);
+            nodeA.record("mall-delta", 429, 30, 5, 3);
+            nodeB.record("mall-delta", 200, 20, 900, 0);
+            metrics.tell(new Cafe24MetricsSingletonActor.RecordCallBatch(nodeA.drain()), getRef());
+            metrics.tell(new Cafe24MetricsSingletonActor.RecordCallBatch(nodeB.drain()), getRef());
+            assertTrue(nodeA.drain().isEmpty());
+
+            metrics.tell(new Cafe24MetricsSingletonActor.GetMallMetrics("mall-delta"), getRef());
+            Cafe24MetricsSingletonActor.MallMetrics mallMetrics =
+                expectMsgClass(Duration.ofSeconds(1), Cafe24MetricsSingletonActor.MallMetrics.class);
+            assertEquals(3, mallMetrics.totalCalls());
+            assertEquals(1, mallMetrics.throttled429());
+            assertEquals(20.0, mallMetrics.avgQueueDelayMs());
+            assertEquals(3, mallMetrics.queueDelayMs().samples());
+            assertEquals(30, mallMetrics.queueDelayMs().max());
+            assertEquals(5, mallMetrics.upstreamLatencyMs().p50());
+            assertEquals(900, mallMetrics.upstreamLatencyMs().p99());
+            assertEquals(3, mallMetrics.retries().max());
+        }};
+    }
+
+    @Test
+    void rollingWindowMetricsShouldAnswerWindowedAndLifetimeTotals() {
+        // window expiry itself is covered by Cafe24RollingWindowTest with explicit timestamps
+        new TestKit(system) {{
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-rolling");
+
+            Cafe24NodeMetrics node = new Cafe24NodeMetrics();
+            node.record("mall-rolling", 200, 10, 5, 0);
+            node.record("mall-rolling", 429, 30, 5, 1);
+            metrics.tell(new Cafe24MetricsSingletonActor.RecordCallBatch(node.drain()), getRef());
+
+            metrics.tell(new Cafe24MetricsSingletonActor.GetMallMetrics(
+                "mall-rolling", Cafe24MetricsSingletonActor.MetricsWindow.LAST_10S), getRef());
+            Cafe24MetricsSingletonActor.MallMetrics recent =
+                expectMsgClass(Duration.ofSeconds(1), Cafe24MetricsSingletonActor.MallMetrics.class);
+            assertEquals(2, recent.totalCalls());
+            assertEquals(1, recent.throttled429());
+            assertEquals(20.0, recent.avgQueueDelayMs());
+
+            metrics.tell(new Cafe24MetricsSingletonActor.GetMallMetrics("mall-rolling"), getRef());
+            assertEquals(2, expectMsgClass(Duration.ofSeconds(1), Cafe24MetricsSingletonActor.MallMetrics.class)
+                .totalCalls());
+        }};
+    }
+
+    @Test
+    void metricsSingletonShouldRestoreStateFromSnapshotAfterRestart() throws Exception {
+        Path snapshotDir = Files.createTempDirectory("cafe24-metrics-snapshot");
+        new TestKit(system) {{
+            ActorRef first = system.actorOf(Cafe24MetricsSingletonActor.props(
+                Duration.ofMinutes(1), snapshotDir, Duration.ofMillis(100)), "cafe24-metrics-test-snapshot-1");
+            Cafe24NodeMetrics node = new Cafe24NodeMetrics();
+            node.record("mall-snap-a", 200, 10, 5, 0);
+            node.record("mall-snap-a", 429, 30, 7, 2);
+            node.record("mall-snap-b", 200, 20, 9, 0);
+            first.tell(new Cafe24MetricsSingletonActor.RecordCallBatch(node.drain()), getRef());
+            // recorded after the periodic journal write has had a chance to run; persisted on stop
+            Thread.sleep(300);
+            node.record("mall-snap-b", 429, 40, 9, 1);
+            first.tell(new Cafe24MetricsSingletonActor.RecordCallBatch(node.drain()), getRef());
+            watch(first);
+            first.tell(Cafe24MetricsSingletonActor.Stop.INSTANCE, getRef());
+            expectTerminated(Duration.ofSeconds(3), first);
+
+            ActorRef second = system.actorOf(Cafe24MetricsSingletonActor.props(
+                Duration.ofMinutes(1), snapshotDir, Duration.ofMillis(100)), "cafe24-metrics-test-snapshot-2");
+            second.tell(new Cafe24MetricsSingletonActor.GetMallMetrics("mall-snap-a"), getRef());
+            Cafe24MetricsSingletonActor.MallMetrics mallA =
+                expectMsgClass(Duration.ofSeconds(3), Cafe24MetricsSingletonActor.MallMetrics.class);
+            assertEquals(2, mallA.totalCalls());
+            assertEquals(1, mallA.throttled429());
+            assertEquals(20.0, mallA.avgQueueDelayMs());
+            assertEquals(2, mallA.retries().max());
+
+            second.tell(new Cafe24MetricsSingletonActor.GetMallMetrics(
+                "mall-snap-b", Cafe24MetricsSingletonActor.MetricsWindow.LAST_5M), getRef());
+            Cafe24MetricsSingletonActor.MallMetrics mallB =
+                expectMsgClass(Duration.ofSeconds(3), Cafe24MetricsSingletonActor.MallMetrics.class);
+            assertEquals(2, mallB.totalCalls());
+            assertEquals(1, mallB.throttled429());
+            assertEquals(2, mallB.queueDelayMs().samples());
+        }};
+    }
+
+    @Test
+    void topMallsShouldRankHotMallsAmongMoreMallsThanTheSketchTracks() {
+        new TestKit(system) {{
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-top");
+
+            Cafe24NodeMetrics node = new Cafe24NodeMetrics();
+            for (int i = 0; i < 50; i++) {
+                node.record("mall-hot-a", i % 5 == 0 ? 429 : 200, 10, 5, 0);
+            }
+            for (int i = 0; i < 20; i++) {
+                node.record("mall-hot-b", 429, 10, 5, 1);
+            }
+            metrics.tell(new Cafe24MetricsSingletonActor.RecordCallBatch(node.drain()), getRef());
+            for (int i = 0; i < Cafe24MetricsSingletonActor.TOP_MALLS_CAPACITY + 50; i++) {
+                node.record("mall-cold-" + i, 200, 1, 5, 0);
+            }
+            metrics.tell(new Cafe24MetricsSingletonActor.RecordCallBatch(node.drain()), getRef());
+
+            metrics.tell(new Cafe24MetricsSingletonActor.GetTopMalls(
+                Cafe24MetricsSingletonActor.TopMetric.CALLS, 2, Cafe24MetricsSingletonActor.MetricsWindow.LAST_1M),
+                getRef());
+            Cafe24MetricsSingletonActor.TopMalls byCalls =
+                expectMsgClass(Duration.ofSeconds(1), Cafe24MetricsSingletonActor.TopMalls.class);
+            assertEquals(List.of("mall-hot-a", "mall-hot-b"),
+                byCalls.malls().stream().map(Cafe24MetricsSingletonActor.TopMall::mallId).toList());
+            assertEquals(50, byCalls.malls().get(0).value());
+
+            metrics.tell(new Cafe24MetricsSingletonActor.GetTopMalls(
+                Cafe24MetricsSingletonActor.TopMetric.THROTTLED_429, 10, Cafe24MetricsSingletonActor.MetricsWindow.LIFETIME),
+                getRef());
+            Cafe24MetricsSingletonActor.TopMalls byThrottled =
+                expectMsgClass(Duration.ofSeconds(1), Cafe24MetricsSingletonActor.TopMalls.class);
+            assertEquals(2, byThrottled.malls().size());
+            assertEquals("mall-hot-b", byThrottled.malls().get(0).mallId());
+            assertEquals(20, byThrottled.malls().get(0).value());
+            assertEquals(10, byThrottled.malls().get(1).value());
+        }};
+    }
+
+    @Test
+    void batchRequestShouldReturnEveryItemInRequestOrder() {
+        new TestKit(system) {{
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-batch");
+            ActorRef manager = system.actorOf(
+                Cafe24ApiManagerActor.props(2, dummyCafe24Api, metrics), "cafe24-manager-test-batch");
+
+            List<Cafe24ApiManagerActor.ApiRequest> items = List.of(
+                new Cafe24ApiManagerActor.ApiRequest("mall-batch-a", "hello"),
+                new Cafe24ApiManagerActor.ApiRequest("mall-batch-b", "beta"),
+                new Cafe24ApiManagerActor.ApiRequest("mall-batch-a", "hello"),
+                new Cafe24ApiManagerActor.ApiRequest("mall-batch-a", "alpha"));
+            manager.tell(new Cafe24ApiManagerActor.ApiBatchRequest(items), getRef());
+
+            Cafe24ApiManagerActor.ApiBatchResponse response =
+                expectMsgClass(Duration.ofSeconds(10), Cafe24ApiManagerActor.ApiBatchResponse.class);
+            assertEquals(4, response.succeeded());
+            assertEquals(0, response.failed());
+            assertEquals(4, response.items().size());
+            for (int i = 0; i < items.size(); i++) {
+                assertEquals(i, response.items().get(i).index());
+                assertEquals(items.get(i).mallId(), response.items().get(i).mallId());
+            }
+            assertEquals("world", response.items().get(2).result());
+            assertEquals("alpha", response.items().get(3).result());
+            expectNoMessage(Duration.ofMillis(200));
+        }};
+    }
+
+    @Test
+    void batchRequestShouldAnswerItemsWithoutMallIdOrWordAsBadRequest() {
+        new TestKit(system) {{
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-batch-invalid");
+            ActorRef manager = system.actorOf(
+                Cafe24ApiManagerActor.props(2, dummyCafe24Api, metrics), "cafe24-manager-test-batch-invalid");
+
+            manager.tell(new Cafe24ApiManagerActor.ApiBatchRequest(Arrays.asList(
+                new Cafe24ApiManagerActor.ApiRequest("mall-batch-valid", "hello"),
+                new Cafe24ApiManagerActor.ApiRequest(null, "hello"),
+                new Cafe24ApiManagerActor.ApiRequest("mall-batch-valid", " "),
+                null)), getRef());
+
+            Cafe24ApiManagerActor.ApiBatchResponse response =
+                expectMsgClass(Duration.ofSeconds(10), Cafe24ApiManagerActor.ApiBatchResponse.class);
+            assertEquals(1, response.succeeded());
+            assertEquals(3, response.failed());
+            assertEquals(200, response.items().get(0).statusCode());
+            for (int i = 1; i < 4; i++) {
+                assertEquals(i, response.items().get(i).index());
+                assertEquals(400, response.items().get(i).statusCode());
+            }
+
+            // a bad single call is answered too, and the manager keeps serving
+            manager.tell(new Cafe24ApiManagerActor.ApiRequest(null, "hello"), getRef());
+            assertEquals(400, expectMsgClass(Cafe24ApiManagerActor.ApiResponse.class).statusCode());
+            manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-batch-valid", "hello"), getRef());
+            assertEquals(200, expectMsgClass(Duration.ofSeconds(5), Cafe24ApiManagerActor.ApiResponse.class).statusCode());
+        }};
+    }
+
+    @Test
+    void batchRequestShouldReportUnfinishedItemsAsTimedOut() {
+        new TestKit(system) {{
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-batch-timeout");
+            Cafe24CallerSettings settings = Cafe24CallerSettings.builder(1).batchTimeout(Duration.ofMillis(300)).build();
+            ActorRef manager = system.actorOf(
+                Cafe24ApiManagerActor.props(settings, dummyCafe24Api, metrics), "cafe24-manager-test-batch-timeout");
+
+            manager.tell(new Cafe24ApiManagerActor.ApiBatchRequest(List.of(
+                new Cafe24ApiManagerActor.ApiRequest("mall-batch-slow", "s-0"),
+                new Cafe24ApiManagerActor.ApiRequest("mall-batch-slow", "s-1"),
+                new Cafe24ApiManagerActor.ApiRequest("mall-batch-slow", "s-2"))), getRef());
+
+            Cafe24ApiManagerActor.ApiBatchResponse response =
+                expectMsgClass(Duration.ofSeconds(5), Cafe24ApiManagerActor.ApiBatchResponse.class);
+            assertEquals(1, response.succeeded());
+            assertEquals(2, response.failed());
+            assertEquals(200, response.items().get(0).statusCode());
+            assertEquals(504, response.items().get(1).statusCode());
+            assertEquals(504, response.items().get(2).statusCode());
+        }};
+    }
+
+    @Test
+    void idleMallCallerShouldStopAndBeRecreatedOnNextRequest() {
+        new TestKit(system) {{
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-idle");
+            Cafe24CallerSettings settings = Cafe24CallerSettings.builder(2).idleTimeout(Duration.ofMillis(300)).build();
+            ActorRef manager = system.actorOf(
+                Cafe24ApiManagerActor.props(settings, dummyCafe24Api, metrics), "cafe24-manager-test-idle");
+
+            manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-idle", "hello"), getRef());
+            expectMsgClass(Duration.ofSeconds(5), Cafe24ApiManagerActor.ApiResponse.class);
+
+            awaitAssert(Duration.ofSeconds(5), Duration.ofMillis(200), () -> {
+                manager.tell(Cafe24ApiManagerActor.GetManagerStats.INSTANCE, getRef());
+                Cafe24ApiManagerActor.ManagerStats stats =
+                    expectMsgClass(Duration.ofMillis(500), Cafe24ApiManagerActor.ManagerStats.class);
+                assertEquals(0, stats.liveMalls());
+                assertEquals(1, stats.evictedIdleTotal());
+                return null;
+            });
+
+            manager.tell(new Cafe24ApiManagerActor.ApiRequest("mall-idle", "again"), getRef());
+            Cafe24ApiManagerActor.ApiResponse response =
+                expectMsgClass(Duration.ofSeconds(5), Cafe24ApiManagerActor.ApiResponse.class);
+            assertEquals("again", response.result());
+
+            manager.tell(Cafe24ApiManagerActor.GetManagerStats.INSTANCE, getRef());
+            Cafe24ApiManagerActor.ManagerStats stats =
+                expectMsgClass(Duration.ofSeconds(1), Cafe24ApiManagerActor.ManagerStats.class);
+            assertEquals(2, stats.createdTotal());
+        }};
+    }
+
+    @Test
+    void liveMallCapShouldEvictLeastRecentlyUsedCaller() {
+        new TestKit(system) {{
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-lru");
+            Cafe24CallerSettings settings = Cafe24CallerSettings.builder(2)
+                .idleTimeout(Duration.ZERO)
+                .maxLiveMalls(2)
+                .build();
+            ActorRef manager = system.actorOf(
+                Cafe24ApiManagerActor.props(settings, dummyCafe24Api, metrics), "cafe24-manager-test-lru");
+
+            for (String mallId : List.of("mall-lru-1", "mall-lru-2", "mall-lru-1", "mall-lru-3")) {
+                manager.tell(new Cafe24ApiManagerActor.ApiRequest(mallId, "hello"), getRef());
+                expectMsgClass(Duration.ofSeconds(5), Cafe24ApiManagerActor.ApiResponse.class);
+            }
+
+            manager.tell(Cafe24ApiManagerActor.GetManagerStats.INSTANCE, getRef());
+            Cafe24ApiManagerActor.ManagerStats stats =
+                expectMsgClass(Duration.ofSeconds(1), Cafe24ApiManagerActor.ManagerStats.class);
+            assertEquals(2, stats.liveMalls());
+            assertEquals(3, stats.createdTotal());
+            assertEquals(1, stats.evictedLruTotal());
+        }};
+    }
+
+    @Test
+    void shardedMallCallerShouldServeRequestsThroughShardRegion() {
+        Cluster cluster = Cluster.get(system);
+        cluster.join(cluster.selfAddress());
+
+        new TestKit(system) {{
+            awaitAssert(Duration.ofSeconds(10), Duration.ofMillis(200), () -> {
+                assertEquals(MemberStatus.up(), cluster.selfMember().status());
+                return null;
+            });
+
+            ActorRef metrics = system.actorOf(Cafe24MetricsSingletonActor.props(), "cafe24-metrics-test-sharded");
+            ActorRef region = Cafe24ApiManagerActor.startMallShardRegion(
+                system, Cafe24CallerSettings.defaults(2), dummyCafe24Api, metrics);
+
+            region.tell(new Cafe24ApiManagerActor.ApiRequest("mall-sharded-a", "hello"), getRef());
+            region.tell(new Cafe24ApiManagerActor.ApiRequest("mall-sharded/b", "beta"), getRef());
+
+            List<Cafe24ApiManagerActor.ApiResponse> responses = new ArrayList<>();
+            responses.add(expectMsgClass(Duration.ofSeconds(10), Cafe24ApiManagerActor.ApiResponse.class));
+            responses.add(expectMsgClass(Duration.ofSeconds(10), Cafe24ApiManagerActor.ApiResponse.class));
+
+            assertTrue(responses.stream().allMatch(r -> r.statusCode() == 200));
+            assertTrue(responses.stream().anyMatch(
+                r -> r.mallId().equals("mall-sharded-a") && r.result().equals("world")));
+            assertTrue(responses.stream().anyMatch(
+                r -> r.mallId().equals("mall-sharded/b") && r.result().equals("beta")));
+
+            // A hand-off drains the entity like a local caller: calls still queued behind the throttle are answered.
+            for (int i = 0; i < 5; i++) {
+                region.tell(new Cafe24ApiManagerActor.ApiRequest("mall-sharded-a", "drain-" + i), getRef());
+            }
+            watch(region);
+            region.tell(ShardRegion.gracefulShutdownInstance(), getRef());
+            for (int i = 0; i < 5; i++) {
+                assertEquals(200,
+                    expectMsgClass(Duration.ofSeconds(10), Cafe24ApiManagerActor.ApiResponse.class).statusCode());
+            }
+            expectTerminated(Duration.ofSeconds(10), region);
+        }};
+    }
+
+    /** Upstream calls made through {@link #delayedCountingClient} and the most that overlapped. */
+    private static final class UpstreamCounter {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        int calls() {
+            return calls.get();
+        }
+
+        int maxInFlight() {
+            return maxInFlight.get();
+        }
+    }
+
+    /** Answers from delegate after delayMs, as a slow upstream would; closing it closes delegate. */
+    private static Cafe24Client delayedCountingClient(DummyCafe24Api delegate, long delayMs, UpstreamCounter counter) {
+        return new Cafe24Client() {
+            @Override
+            public CompletionStage<Cafe24Client.ApiCallResult> call(String mallId, String word) {
+                counter.calls.incrementAndGet();
+                counter.maxInFlight.accumulateAndGet(counter.inFlight.incrementAndGet(), Math::max);
+                return CompletableFuture.supplyAsync(
+                    () -> {
+                        counter.inFlight.decrementAndGet();
+                        return delegate.call(mallId, word).toCompletableFuture().join();
+                    },
+                    CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS));
+            }
+
+            @Override
+            public void close() {
+                delegate.close();
+            }
+        };
+    }
 }
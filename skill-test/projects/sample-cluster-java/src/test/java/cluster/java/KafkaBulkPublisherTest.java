@@ -0,0 +1,142 @@
+package cluster.java;
+
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.kafka.ProducerMessage;
+import akka.stream.javadsl.Flow;
+import akka.testkit.javadsl.TestKit;
+import cluster.java.kafka.KafkaBulkPublisher;
+import cluster.java.kafka.KafkaPublishSettings;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scala.concurrent.duration.FiniteDuration;
+import scala.jdk.javaapi.CollectionConverters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KafkaBulkPublisherTest {
+
+    private static ActorSystem system;
+
+    @BeforeAll
+    static void setup() {
+        system = ActorSystem.create("KafkaBulkPublisherTestSystem");
+    }
+
+    @AfterAll
+    static void teardown() {
+        TestKit.shutdownActorSystem(system,
+            FiniteDuration.apply(10, TimeUnit.SECONDS), true);
+    }
+
+    @Test
+    void bulkPublisherShouldAnswerBatchOffsetsAndRestartAfterAFailedStream() throws Exception {
+        AtomicInteger materializations = new AtomicInteger();
+        // Fake broker with two partitions chosen by key; the first stream fails on its first batch.
+        AtomicLongArray nextOffsets = new AtomicLongArray(2);
+        KafkaBulkPublisher publisher = new KafkaBulkPublisher(
+            system,
+            "bulk-events",
+            KafkaPublishSettings.builder().maxBatchRecords(1000).build(),
+            () -> {
+                boolean failing = materializations.incrementAndGet() == 1;
+                return Flow.<ProducerMessage.Envelope<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>>>create()
+                    .map(envelope -> {
+                        if (failing) {
+                            throw new IllegalStateException("broker unavailable");
+                        }
+                        return acknowledge(envelope, nextOffsets);
+                    });
+            });
+
+        KafkaBulkPublisher.PublishResult failed = publisher.publish(records(10).iterator())
+            .toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(1, failed.failedBatches());
+        assertEquals("broker unavailable", failed.batches().get(0).error());
+        assertEquals(10, failed.batches().get(0).records());
+        assertEquals("", failed.error());
+
+        KafkaBulkPublisher.PublishResult published = publisher.publish(records(2500).iterator())
+            .toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(2, materializations.get());
+        assertEquals(2500, published.records());
+        assertEquals(0, published.failedBatches());
+        assertEquals(List.of(1000, 1000, 500),
+            published.batches().stream().map(KafkaBulkPublisher.BatchResult::records).toList());
+        KafkaBulkPublisher.BatchResult first = published.batches().get(0);
+        assertTrue(first.success());
+        assertEquals(List.of(
+                new KafkaBulkPublisher.PartitionOffsets(0, 0, 499, 500),
+                new KafkaBulkPublisher.PartitionOffsets(1, 0, 499, 500)),
+            first.partitions());
+        assertEquals(new KafkaBulkPublisher.PartitionOffsets(1, 1000, 1249, 250),
+            published.batches().get(2).partitions().get(1));
+
+        publisher.close();
+        assertFalse(publisher.publishBatch(records(1)).get(5, TimeUnit.SECONDS).success());
+    }
+
+    @Test
+    void bulkPublisherShouldPublishTheRecordsBeforeAMalformedOneAndReportWhereItStopped() throws Exception {
+        AtomicLongArray nextOffsets = new AtomicLongArray(2);
+        KafkaBulkPublisher publisher = new KafkaBulkPublisher(
+            system,
+            "bulk-events",
+            KafkaPublishSettings.builder().maxBatchRecords(2).build(),
+            () -> Flow.<ProducerMessage.Envelope<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>>>create()
+                .map(envelope -> acknowledge(envelope, nextOffsets)));
+        String ndjson = "{\"key\":\"key-0\",\"value\":\"a\"}\n"
+            + "{\"key\":\"key-1\",\"value\":\"b\"}\n"
+            + "{\"key\":\"key-2\",\"value\":\"c\"}\n"
+            + "{\"key\":\"key-3\",\"value\":\n";
+
+        KafkaBulkPublisher.PublishResult result = publisher.publish(
+                new ObjectMapper().readerFor(KafkaBulkPublisher.PublishRecord.class)
+                    .<KafkaBulkPublisher.PublishRecord>readValues(ndjson))
+            .toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(3, result.records());
+        assertEquals(0, result.failedBatches());
+        assertEquals(List.of(2, 1), result.batches().stream().map(KafkaBulkPublisher.BatchResult::records).toList());
+        assertTrue(result.error().startsWith("record 3: "), result.error());
+        assertEquals(3, nextOffsets.get(0) + nextOffsets.get(1));
+
+        publisher.close();
+    }
+
+    private static List<KafkaBulkPublisher.PublishRecord> records(int count) {
+        return IntStream.range(0, count)
+            .mapToObj(i -> new KafkaBulkPublisher.PublishRecord("key-" + i, "value-" + i))
+            .toList();
+    }
+
+    private static ProducerMessage.Results<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>> acknowledge(
+        ProducerMessage.Envelope<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>> envelope,
+        AtomicLongArray nextOffsets) {
+        ProducerMessage.MultiMessage<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>> multi =
+            (ProducerMessage.MultiMessage<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>>) envelope;
+        List<ProducerMessage.MultiResultPart<String, String>> parts = new ArrayList<>();
+        for (ProducerRecord<String, String> record : CollectionConverters.asJava(multi.records())) {
+            int partition = Integer.parseInt(record.key().substring("key-".length())) % 2;
+            long offset = nextOffsets.getAndIncrement(partition);
+            parts.add(new ProducerMessage.MultiResultPart<>(
+                new RecordMetadata(new TopicPartition(record.topic(), partition), offset, 0, 0L, 0, 0),
+                record));
+        }
+        return new ProducerMessage.MultiResult<>(CollectionConverters.asScala(parts).toList(), multi.passThrough());
+    }
+}
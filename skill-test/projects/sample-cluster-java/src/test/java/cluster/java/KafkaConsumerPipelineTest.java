@@ -0,0 +1,319 @@
+package cluster.java;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorSystem;
+import akka.japi.Pair;
+import akka.kafka.ConsumerMessage;
+import akka.kafka.javadsl.Consumer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Source;
+import akka.testkit.javadsl.TestKit;
+import cluster.java.cafe24.Cafe24ApiManagerActor;
+import cluster.java.cafe24.Cafe24KafkaBridge;
+import cluster.java.cafe24.Cafe24RetryPolicy;
+import cluster.java.kafka.KafkaBulkPublisher;
+import cluster.java.kafka.KafkaConsumerPipeline;
+import cluster.java.kafka.KafkaConsumerSettings;
+import cluster.java.kafka.KafkaRecordProcessor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KafkaConsumerPipelineTest {
+
+    private static final int RECORDS = 100;
+
+    private static ActorSystem system;
+
+    @BeforeAll
+    static void setup() {
+        system = ActorSystem.create("KafkaConsumerPipelineTestSystem");
+    }
+
+    @AfterAll
+    static void teardown() {
+        TestKit.shutdownActorSystem(system,
+            FiniteDuration.apply(10, TimeUnit.SECONDS), true);
+    }
+
+    @Test
+    void consumerPipelineShouldCommitProcessedOffsetsAndReplayAfterAFailure() throws Exception {
+        // Fake topic of RECORDS records; every (re)start resumes after the last committed offset.
+        AtomicLong lastCommitted = new AtomicLong(-1);
+        List<Long> committed = new CopyOnWriteArrayList<>();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicBoolean failedOnce = new AtomicBoolean();
+        Executor later = CompletableFuture.delayedExecutor(2, TimeUnit.MILLISECONDS);
+
+        KafkaRecordProcessor processor = record -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                inFlight.decrementAndGet();
+                if (record.offset() == 42 && failedOnce.compareAndSet(false, true)) {
+                    throw new IllegalStateException("poison");
+                }
+                return record.value();
+            }, later);
+        };
+
+        KafkaConsumerPipeline pipeline = new KafkaConsumerPipeline(
+            system,
+            KafkaConsumerSettings.builder("jobs", "test-group")
+                .parallelism(4)
+                .restartMinBackoff(Duration.ofMillis(50))
+                .restartMaxBackoff(Duration.ofMillis(100))
+                .build(),
+            processor,
+            () -> Source.range((int) lastCommitted.get() + 1, RECORDS - 1)
+                .map(offset -> KafkaTestMessages.committableMessage(
+                    "test-group", new ConsumerRecord<>("jobs", 0, offset, "key-" + offset, "value-" + offset)))
+                .concatMat(Source.maybe(), (notUsed, idle) ->
+                    (Consumer.Control) new FakeControl(() -> idle.complete(Optional.empty()))),
+            Flow.create(),
+            Flow.<ConsumerMessage.Committable>create().map(committable -> {
+                long offset = ((ConsumerMessage.CommittableOffset) committable).partitionOffset().offset();
+                committed.add(offset);
+                lastCommitted.set(offset);
+                return Done.getInstance();
+            }));
+        pipeline.start();
+
+        new TestKit(system) {{
+            awaitAssert(Duration.ofSeconds(5), Duration.ofMillis(50), () -> {
+                assertEquals(RECORDS - 1, lastCommitted.get());
+                return null;
+            });
+        }};
+
+        KafkaConsumerPipeline.ConsumerStats stats = pipeline.stats();
+        assertTrue(stats.running());
+        assertEquals(1, stats.failed());
+        assertEquals(1, stats.restarts());
+        assertTrue(stats.processed() >= RECORDS, "processed " + stats.processed());
+        assertEquals(committed.size(), stats.commits());
+        assertEquals(committed.size(), stats.committedRecords());
+        assertTrue(maxInFlight.get() <= 4, "max in flight " + maxInFlight.get());
+        // in order and never twice: the restart resumes after the last commit
+        for (int i = 1; i < committed.size(); i++) {
+            assertTrue(committed.get(i) > committed.get(i - 1), "commit order " + committed);
+        }
+
+        pipeline.drainAndShutdown().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertFalse(pipeline.stats().running());
+    }
+
+    @Test
+    void partitionedPipelineShouldRunPartitionsSideBySideAndKeepPerKeyOrder() throws Exception {
+        int partitions = 3;
+        int recordsPerPartition = 40;
+        Map<String, AtomicInteger> inFlightByKey = new ConcurrentHashMap<>();
+        Map<String, List<Long>> offsetsByKey = new ConcurrentHashMap<>();
+        Map<Integer, List<Long>> committedByPartition = new ConcurrentHashMap<>();
+        AtomicInteger overlappingSameKey = new AtomicInteger();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger committed = new AtomicInteger();
+        CompletableFuture<Done> stopped = new CompletableFuture<>();
+
+        KafkaRecordProcessor processor = record -> {
+            String key = record.partition() + "/" + record.key();
+            if (inFlightByKey.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet() > 1) {
+                overlappingSameKey.incrementAndGet();
+            }
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Executor later = CompletableFuture.delayedExecutor(
+                ThreadLocalRandom.current().nextInt(1, 4), TimeUnit.MILLISECONDS);
+            return CompletableFuture.runAsync(() -> {
+                offsetsByKey.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(record.offset());
+                inFlightByKey.get(key).decrementAndGet();
+                inFlight.decrementAndGet();
+            }, later);
+        };
+
+        KafkaConsumerPipeline pipeline = KafkaConsumerPipeline.partitioned(
+            system,
+            KafkaConsumerSettings.builder("jobs", "test-group").partitioned(true).parallelism(4).build(),
+            processor,
+            () -> Source.range(0, partitions - 1)
+                .map(partition -> Pair.create(
+                    new TopicPartition("jobs", partition),
+                    partitionSource(partition, recordsPerPartition, stopped)))
+                .concatMat(
+                    Source.<Pair<TopicPartition, Source<ConsumerMessage.CommittableMessage<String, String>, NotUsed>>>maybe(),
+                    (notUsed, idle) -> (Consumer.Control) new FakeControl(() -> {
+                        idle.complete(Optional.empty());
+                        stopped.complete(Done.getInstance());
+                    })),
+            Flow.create(),
+            Flow.<ConsumerMessage.Committable>create().map(committable -> {
+                ConsumerMessage.PartitionOffset offset = ((ConsumerMessage.CommittableOffset) committable).partitionOffset();
+                committedByPartition.computeIfAbsent(offset.key().partition(), p -> new CopyOnWriteArrayList<>())
+                    .add(offset.offset());
+                committed.incrementAndGet();
+                return Done.getInstance();
+            }));
+        pipeline.start();
+
+        new TestKit(system) {{
+            awaitAssert(Duration.ofSeconds(5), Duration.ofMillis(50), () -> {
+                assertEquals(partitions * recordsPerPartition, committed.get());
+                return null;
+            });
+        }};
+
+        KafkaConsumerPipeline.ConsumerStats stats = pipeline.stats();
+        assertTrue(stats.partitioned());
+        assertEquals(partitions, stats.activePartitions());
+        assertEquals(0, overlappingSameKey.get());
+        // 3 keys per partition cap one partition at 3 records in flight
+        assertTrue(maxInFlight.get() > 3, "max in flight " + maxInFlight.get());
+        offsetsByKey.forEach((key, offsets) ->
+            assertEquals(offsets.stream().sorted().toList(), offsets, "processing order of " + key));
+        committedByPartition.forEach((partition, offsets) ->
+            assertEquals(offsets.stream().sorted().toList(), offsets, "commit order of partition " + partition));
+
+        pipeline.drainAndShutdown().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertFalse(pipeline.stats().running());
+        assertEquals(0, pipeline.stats().activePartitions());
+    }
+
+    /** A partition's records keyed over three keys; the sub-source ends when the consumer is stopped. */
+    @Test
+    void cafe24BridgeShouldRetryShedCallsBoundedlyAndDeadLetterTheRest() throws Exception {
+        List<ProducerRecord<String, String>> deadLetters = new CopyOnWriteArrayList<>();
+        KafkaBulkPublisher deadLetterPublisher =
+            KafkaTestMessages.recordingPublisher(system, "mall-jobs-dead", deadLetters);
+        Cafe24RetryPolicy oneRetry = new Cafe24RetryPolicy(1, Duration.ofMillis(100), Duration.ofMillis(500));
+        new TestKit(system) {{
+            // the probe stands in for the call router
+            Cafe24KafkaBridge bridge = new Cafe24KafkaBridge(
+                system, getRef(), Duration.ofSeconds(3), oneRetry, deadLetterPublisher);
+
+            CompletableFuture<Cafe24ApiManagerActor.ApiResponse> skipped = bridge
+                .process(new ConsumerRecord<>("mall-jobs", 0, 0L, "mall-bridge", "not a job"))
+                .toCompletableFuture();
+            assertNull(skipped.get(1, TimeUnit.SECONDS));
+            expectNoMessage(Duration.ofMillis(100));
+
+            String value = "{\"word\":\"hello\",\"priority\":\"BULK\"}";
+            Cafe24ApiManagerActor.ApiRequest job = new Cafe24ApiManagerActor.ApiRequest(
+                "mall-bridge", "hello", Cafe24ApiManagerActor.CallPriority.BULK);
+            Cafe24ApiManagerActor.ApiResponse shed = new Cafe24ApiManagerActor.ApiResponse(
+                "mall-bridge", "hello", "Service Unavailable: mall queue full", 503, 0, 0, 0);
+
+            CompletableFuture<Cafe24ApiManagerActor.ApiResponse> processed = bridge
+                .process(new ConsumerRecord<>("mall-jobs", 0, 1L, "mall-bridge", value))
+                .toCompletableFuture();
+            expectMsgEquals(job);
+            reply(shed);
+            // shed: asked again after the backoff, and the record stays unfinished (uncommitted) meanwhile
+            expectMsgEquals(Duration.ofSeconds(2), job);
+            assertFalse(processed.isDone());
+            reply(new Cafe24ApiManagerActor.ApiResponse("mall-bridge", "hello", "world", 200, 1, 10));
+            assertEquals(200, processed.get(3, TimeUnit.SECONDS).statusCode());
+            assertTrue(deadLetters.isEmpty());
+
+            // still shed after the last retry: dead-lettered unchanged and finished with the last answer
+            CompletableFuture<Cafe24ApiManagerActor.ApiResponse> exhausted = bridge
+                .process(new ConsumerRecord<>("mall-jobs", 0, 2L, "mall-bridge", value))
+                .toCompletableFuture();
+            expectMsgEquals(job);
+            reply(shed);
+            expectMsgEquals(Duration.ofSeconds(2), job);
+            reply(shed);
+            assertEquals(503, exhausted.get(3, TimeUnit.SECONDS).statusCode());
+            expectNoMessage(Duration.ofMillis(300));
+            assertEquals(1, deadLetters.size());
+            assertEquals("mall-jobs-dead", deadLetters.get(0).topic());
+            assertEquals("mall-bridge", deadLetters.get(0).key());
+            assertEquals(value, deadLetters.get(0).value());
+
+            // unanswered: the call may have run, so it is dead-lettered instead of asked again
+            Cafe24KafkaBridge impatient = new Cafe24KafkaBridge(
+                system, getRef(), Duration.ofMillis(200), oneRetry, deadLetterPublisher);
+            CompletableFuture<Cafe24ApiManagerActor.ApiResponse> unanswered = impatient
+                .process(new ConsumerRecord<>("mall-jobs", 0, 3L, "mall-bridge", value))
+                .toCompletableFuture();
+            expectMsgEquals(job);
+            assertNull(unanswered.get(3, TimeUnit.SECONDS));
+            expectNoMessage(Duration.ofMillis(500));
+            assertEquals(2, deadLetters.size());
+        }};
+        deadLetterPublisher.close();
+    }
+
+    private static Source<ConsumerMessage.CommittableMessage<String, String>, NotUsed> partitionSource(
+        int partition, int records, CompletableFuture<Done> stopped) {
+        return Source.range(0, records - 1)
+            .map(offset -> KafkaTestMessages.committableMessage(
+                "test-group", new ConsumerRecord<>("jobs", partition, offset, "key-" + offset % 3, "value-" + offset)))
+            .concat(Source.completionStageSource(stopped.thenApply(
+                done -> Source.<ConsumerMessage.CommittableMessage<String, String>>empty())));
+    }
+
+    /** stop() runs onStop to complete the fake sources, as stopping a real consumer completes its sources. */
+    private static final class FakeControl implements Consumer.Control {
+        private final Runnable onStop;
+        private final CompletableFuture<Done> stopped = new CompletableFuture<>();
+
+        FakeControl(Runnable onStop) {
+            this.onStop = onStop;
+        }
+
+        @Override
+        public CompletionStage<Done> stop() {
+            if (stopped.complete(Done.getInstance())) {
+                onStop.run();
+            }
+            return stopped;
+        }
+
+        @Override
+        public CompletionStage<Done> shutdown() {
+            return stop();
+        }
+
+        @Override
+        public <T> CompletionStage<T> drainAndShutdown(CompletionStage<T> streamCompletion, Executor ec) {
+            return stop().thenCompose(ignored -> streamCompletion);
+        }
+
+        @Override
+        public CompletionStage<Done> isShutdown() {
+            return stopped;
+        }
+
+        @Override
+        public CompletionStage<Map<MetricName, Metric>> getMetrics() {
+            return CompletableFuture.completedFuture(Map.of());
+        }
+    }
+}
@@ -1,20 +1,37 @@
 package cluster.java;
 
+import akka.Done;
+import akka.NotUsed;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.kafka.ConsumerMessage;
+import akka.stream.BoundedSourceQueue;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Source;
 import akka.testkit.javadsl.TestKit;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import scala.concurrent.duration.FiniteDuration;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class KafkaStreamSingletonActorTest {
 
@@ -60,4 +77,123 @@ class KafkaStreamSingletonActorTest {
             });
         }};
     }
+
+    @Test
+    void kafkaSingletonShouldCloseRunnerWhenStopped() {
+        AtomicInteger closeCount = new AtomicInteger();
+
+        KafkaStreamSingletonActor.KafkaStreamRunner closingRunner = new KafkaStreamSingletonActor.KafkaStreamRunner() {
+            @Override
+            public CompletionStage<String> runOnce(
+                String bootstrapServers,
+                String topic,
+                String groupIdPrefix,
+                String payload,
+                Duration timeout) {
+                return CompletableFuture.completedFuture(payload);
+            }
+
+            @Override
+            public void close() {
+                closeCount.incrementAndGet();
+            }
+        };
+
+        ActorRef singleton = system.actorOf(
+            KafkaStreamSingletonActor.props(
+                "localhost:9092",
+                "cluster-java-events",
+                "test-group",
+                Duration.ofSeconds(3),
+                closingRunner));
+
+        new TestKit(system) {{
+            singleton.tell(KafkaStreamSingletonActor.FireEvent.INSTANCE, getRef());
+            assertTrue(expectMsgClass(Duration.ofSeconds(3), KafkaStreamSingletonActor.FireEventResult.class).success());
+            assertEquals(0, closeCount.get());
+
+            watch(singleton);
+            singleton.tell(KafkaStreamSingletonActor.Stop.INSTANCE, ActorRef.noSender());
+            expectTerminated(Duration.ofSeconds(3), singleton);
+            assertEquals(1, closeCount.get());
+        }};
+    }
+
+    @Test
+    void akkaStreamsRunnerShouldShareOneProducerAndConsumerAndMatchEachReplyByKey() throws Exception {
+        int roundTrips = 5;
+        AtomicInteger producersCreated = new AtomicInteger();
+        AtomicInteger consumersStarted = new AtomicInteger();
+        AtomicInteger committed = new AtomicInteger();
+        CompletableFuture<BoundedSourceQueue<ConsumerMessage.CommittableMessage<String, String>>> topic =
+            new CompletableFuture<>();
+
+        // Fake broker: holds the records until every round-trip has sent one, then hands them to the
+        // consumer in reverse order, after a record nobody waits for.
+        MockProducer<String, String> fakeProducer =
+            new MockProducer<>(true, new StringSerializer(), new StringSerializer()) {
+                private final List<ProducerRecord<String, String>> held = new ArrayList<>();
+
+                @Override
+                public synchronized Future<RecordMetadata> send(
+                    ProducerRecord<String, String> record, Callback callback) {
+                    held.add(record);
+                    if (held.size() == roundTrips) {
+                        List<ProducerRecord<String, String>> delivered = new ArrayList<>(held);
+                        delivered.add(new ProducerRecord<>(record.topic(), "someone-else", "stray"));
+                        Collections.reverse(delivered);
+                        topic.thenAccept(queue -> {
+                            for (int offset = 0; offset < delivered.size(); offset++) {
+                                ProducerRecord<String, String> sent = delivered.get(offset);
+                                queue.offer(KafkaTestMessages.committableMessage("test-group-fire-event",
+                                    new ConsumerRecord<>(sent.topic(), 0, offset, sent.key(), sent.value())));
+                            }
+                        });
+                    }
+                    return super.send(record, callback);
+                }
+            };
+
+        KafkaStreamSingletonActor.AkkaStreamsKafkaRunner runner = new KafkaStreamSingletonActor.AkkaStreamsKafkaRunner(
+            system,
+            settings -> {
+                producersCreated.incrementAndGet();
+                return settings.withProducer(fakeProducer);
+            },
+            (settings, subscribedTopic) -> {
+                consumersStarted.incrementAndGet();
+                return Source.<ConsumerMessage.CommittableMessage<String, String>>queue(16)
+                    .mapMaterializedValue(queue -> {
+                        topic.complete(queue);
+                        return NotUsed.getInstance();
+                    });
+            },
+            Flow.<ConsumerMessage.Committable>create().map(committable -> {
+                committed.incrementAndGet();
+                return Done.getInstance();
+            }));
+
+        List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (int i = 0; i < roundTrips; i++) {
+            replies.add(runner.runOnce(
+                    "localhost:9092", "cluster-java-events", "test-group", "payload-" + i, Duration.ofSeconds(5))
+                .toCompletableFuture());
+        }
+        for (int i = 0; i < roundTrips; i++) {
+            assertEquals("payload-" + i, replies.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, producersCreated.get());
+        assertEquals(1, consumersStarted.get());
+        assertEquals(roundTrips, fakeProducer.history().size());
+
+        new TestKit(system) {{
+            awaitAssert(Duration.ofSeconds(3), Duration.ofMillis(50), () -> {
+                // the stray record is committed too
+                assertEquals(roundTrips + 1, committed.get());
+                return null;
+            });
+        }};
+
+        runner.close();
+    }
 }
@@ -0,0 +1,69 @@
+package cluster.java;
+
+import akka.actor.ActorSystem;
+import akka.kafka.ConsumerMessage;
+import akka.kafka.ProducerMessage;
+import akka.kafka.internal.CommittableOffsetImpl;
+import akka.kafka.internal.KafkaAsyncConsumerCommitterRef;
+import akka.stream.javadsl.Flow;
+import cluster.java.kafka.KafkaBulkPublisher;
+import cluster.java.kafka.KafkaPublishSettings;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import scala.concurrent.ExecutionContext;
+import scala.jdk.javaapi.CollectionConverters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Committable messages for fake consumer sources, built the way the Alpakka Kafka testkit's
+ * ConsumerResultFactory builds them. Their committer is never used: tests pass their own commit flow.
+ * Also a broker-less {@link KafkaBulkPublisher} that records what it publishes.
+ */
+final class KafkaTestMessages {
+
+    private static final KafkaAsyncConsumerCommitterRef NO_COMMITTER =
+        new KafkaAsyncConsumerCommitterRef(null, null, ExecutionContext.global());
+
+    private KafkaTestMessages() {
+    }
+
+    static ConsumerMessage.CommittableOffset committableOffset(String groupId, String topic, int partition, long offset) {
+        return new CommittableOffsetImpl(
+            new ConsumerMessage.PartitionOffset(new ConsumerMessage.GroupTopicPartition(groupId, topic, partition), offset),
+            "",
+            NO_COMMITTER);
+    }
+
+    static ConsumerMessage.CommittableMessage<String, String> committableMessage(
+        String groupId, ConsumerRecord<String, String> record) {
+        return new ConsumerMessage.CommittableMessage<>(
+            record, committableOffset(groupId, record.topic(), record.partition(), record.offset()));
+    }
+
+    /** Acknowledges every record at the next offset of partition 0 and adds it to published. */
+    static KafkaBulkPublisher recordingPublisher(
+        ActorSystem system, String topic, List<ProducerRecord<String, String>> published) {
+        return new KafkaBulkPublisher(
+            system,
+            topic,
+            KafkaPublishSettings.defaults(),
+            () -> Flow.<ProducerMessage.Envelope<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>>>create()
+                .map(envelope -> {
+                    ProducerMessage.MultiMessage<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>> multi =
+                        (ProducerMessage.MultiMessage<String, String, CompletableFuture<KafkaBulkPublisher.BatchResult>>) envelope;
+                    List<ProducerMessage.MultiResultPart<String, String>> parts = new ArrayList<>();
+                    for (ProducerRecord<String, String> record : CollectionConverters.asJava(multi.records())) {
+                        published.add(record);
+                        parts.add(new ProducerMessage.MultiResultPart<>(
+                            new RecordMetadata(new TopicPartition(record.topic(), 0), published.size() - 1, 0, 0L, 0, 0),
+                            record));
+                    }
+                    return new ProducerMessage.MultiResult<>(CollectionConverters.asScala(parts).toList(), multi.passThrough());
+                }));
+    }
+}
@@ -0,0 +1,39 @@
+package cluster.java.cafe24;
+
+import cluster.java.cafe24.Cafe24MetricsSingletonActor.MetricsWindow;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class Cafe24RollingWindowTest {
+
+    // half way through a one-second slot
+    private static final long T0 = 1_700_000_000_500L;
+
+    @Test
+    void rollingWindowShouldForgetCallsOnceTheirSlotsRollOut() {
+        Cafe24RollingWindow window = new Cafe24RollingWindow();
+        window.add(T0, 2, 1, 40);
+
+        assertEquals(new Cafe24RollingWindow.Totals(2, 1, 40), window.totals(MetricsWindow.LAST_1S, T0 + 499));
+        assertEquals(0, window.totals(MetricsWindow.LAST_1S, T0 + 500).calls());
+        assertEquals(2, window.totals(MetricsWindow.LAST_10S, T0 + 9_499).calls());
+        assertEquals(0, window.totals(MetricsWindow.LAST_10S, T0 + 9_500).calls());
+        assertEquals(2, window.totals(MetricsWindow.LAST_1M, T0 + 59_000).calls());
+        assertEquals(0, window.totals(MetricsWindow.LAST_1M, T0 + 60_000).calls());
+        assertEquals(2, window.totals(MetricsWindow.LAST_5M, T0 + 299_000).calls());
+        assertEquals(0, window.totals(MetricsWindow.LAST_5M, T0 + 300_000).calls());
+    }
+
+    @Test
+    void rollingWindowShouldNotBringBackStaleSlotsAfterALongGap() {
+        Cafe24RollingWindow window = new Cafe24RollingWindow();
+        window.add(T0, 3, 0, 30);
+        // one full ring later, the new calls land on the old calls' slot indexes
+        window.add(T0 + 300_000, 1, 1, 5);
+
+        assertEquals(new Cafe24RollingWindow.Totals(1, 1, 5), window.totals(MetricsWindow.LAST_1S, T0 + 300_000));
+        assertEquals(new Cafe24RollingWindow.Totals(1, 1, 5), window.totals(MetricsWindow.LAST_10S, T0 + 300_000));
+        assertEquals(new Cafe24RollingWindow.Totals(1, 1, 5), window.totals(MetricsWindow.LAST_5M, T0 + 300_000));
+    }
+}